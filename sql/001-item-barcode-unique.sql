@@ -0,0 +1,15 @@
+-- Unique index on item.barcode (exact barcode lookup, see ItemDAO.findItemByBarcode).
+-- Items without barcode are stored as NULL, unique index allows any number of NULLs.
+-- Column item.barcode has to be nullable (ALTER TABLE item MODIFY barcode ... NULL if it is not).
+
+UPDATE item SET barcode = NULL WHERE TRIM(barcode) = '';
+UPDATE item SET barcode = TRIM(barcode) WHERE barcode <> TRIM(barcode);
+
+-- must return no rows before the index can be created (resolve duplicates manually)
+SELECT barcode, COUNT(*) AS items, GROUP_CONCAT(id) AS item_ids
+FROM item
+WHERE barcode IS NOT NULL
+GROUP BY barcode
+HAVING COUNT(*) > 1;
+
+ALTER TABLE item ADD UNIQUE INDEX item_barcode_unique (barcode);
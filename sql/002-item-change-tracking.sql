@@ -0,0 +1,25 @@
+-- Change tracking of table item (incremental reload, see ItemDAO.reloadItemList).
+-- Without this script the application always reloads the whole item list.
+
+-- time of the last modification of the row, maintained by the server
+ALTER TABLE item
+    ADD COLUMN updated_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3);
+CREATE INDEX item_updated_at ON item (updated_at);
+
+-- IDs of deleted items
+CREATE TABLE item_tombstone (
+    item_id INT NOT NULL PRIMARY KEY,
+    deleted_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    INDEX item_tombstone_deleted_at (deleted_at)
+);
+
+CREATE TRIGGER item_after_delete AFTER DELETE ON item FOR EACH ROW
+    INSERT INTO item_tombstone (item_id) VALUES (OLD.id)
+    ON DUPLICATE KEY UPDATE deleted_at = CURRENT_TIMESTAMP(3);
+
+GRANT SELECT ON item_tombstone TO 'basic-user'@'%', 'admin-user'@'%';
+
+-- clients reload the whole list at least once an hour, older tombstones are not needed
+-- (requires event_scheduler = ON)
+CREATE EVENT item_tombstone_cleanup ON SCHEDULE EVERY 1 DAY
+    DO DELETE FROM item_tombstone WHERE deleted_at < NOW(3) - INTERVAL 1 DAY;
@@ -0,0 +1,6 @@
+-- Version of item details for optimistic concurrency control (see ItemDAO.itemUpdate).
+-- Incremented by every update of name, barcode, min_amount, unit or category,
+-- stock changes (cur_amount) do not change it.
+-- Without this script the update compares the original values of these columns instead.
+
+ALTER TABLE item ADD COLUMN version INT NOT NULL DEFAULT 0;
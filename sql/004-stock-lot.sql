@@ -0,0 +1,21 @@
+-- Currently stored varieties (lots differing in expiration date) of every item.
+-- Maintained by ItemDAO in the same transaction as inserts into move_item:
+-- supply adds to the lot, offtake decrements it (never below zero) and removes empty lots.
+-- Offtake dialog reads only live lots instead of aggregating the whole move history.
+-- Can be recalculated from move_item in the application ("Správa databázy" -> "Prepočítať zásoby").
+-- Without this script varieties and expiring stock are aggregated from move_item.
+-- Clients without this script do not maintain stock_lot - recalculate it after the last of them is updated.
+
+CREATE TABLE stock_lot (
+    item_id INT NOT NULL,
+    expiration DATE NOT NULL,
+    quantity INT NOT NULL,
+    PRIMARY KEY (item_id, expiration),
+    FOREIGN KEY (item_id) REFERENCES item (id) ON DELETE CASCADE
+);
+
+INSERT INTO stock_lot (item_id, expiration, quantity)
+    SELECT item_id, expiration, SUM(amount) FROM move_item
+    GROUP BY item_id, expiration HAVING SUM(amount) > 0;
+
+GRANT SELECT, INSERT, UPDATE, DELETE ON stock_lot TO 'basic-user'@'%', 'admin-user'@'%';
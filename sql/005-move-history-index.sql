@@ -0,0 +1,7 @@
+-- Indexes for item move history.
+-- Moves of an item are found by item_id, moves of a period by (time, id) of the move.
+-- The index on move cannot order the history of one item (filtered on move_item),
+-- move_item_item_move is replaced by move_item_item_time in 010-move-item-time.sql.
+
+CREATE INDEX move_item_item_move ON move_item (item_id, move_id, expiration);
+CREATE INDEX move_time_id ON move (time, id);
@@ -0,0 +1,24 @@
+-- Daily per-item totals of moves for the consumption overview (see ConsumptionRollup).
+-- Maintained by ItemDAO in the same transaction as inserts into move_item.
+-- Can be recalculated from the history in the application ("Správa databázy" -> "Prepočítať spotrebu").
+
+CREATE TABLE consumption_daily (
+    item_id INT NOT NULL,
+    day DATE NOT NULL,
+    supplied INT NOT NULL DEFAULT 0,
+    consumed INT NOT NULL DEFAULT 0,
+    trashed INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (item_id, day),
+    FOREIGN KEY (item_id) REFERENCES item (id) ON DELETE CASCADE
+);
+
+-- backfill from the existing history
+INSERT INTO consumption_daily (item_id, day, supplied, consumed, trashed)
+    SELECT move_item.item_id, DATE(move.time),
+        SUM(IF(move_item.amount > 0, move_item.amount, 0)),
+        SUM(IF(move_item.amount < 0 AND move.account_id <> 1, move_item.amount, 0)),
+        SUM(IF(move.account_id = 1, move_item.amount, 0))
+    FROM move_item JOIN move ON move_item.move_id = move.id
+    GROUP BY move_item.item_id, DATE(move.time);
+
+GRANT SELECT, INSERT, UPDATE, DELETE ON consumption_daily TO 'basic-user'@'%', 'admin-user'@'%';
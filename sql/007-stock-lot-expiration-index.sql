@@ -0,0 +1,3 @@
+-- Index for "expiring within N days" queries over live stock lots (see ComplexQueryHandler.getSoonExpiryItems).
+
+CREATE INDEX stock_lot_expiration ON stock_lot (expiration);
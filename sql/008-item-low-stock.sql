@@ -0,0 +1,6 @@
+-- Low stock flag of the item (current amount not above minimal amount) for the low stock overview
+-- (see ComplexQueryHandler.getLowStockItems). Computed by the server, indexed.
+
+ALTER TABLE item
+    ADD COLUMN low_stock TINYINT(1) AS (cur_amount <= min_amount) STORED,
+    ADD INDEX item_low_stock (low_stock);
@@ -0,0 +1,35 @@
+-- Change feed of tables item and category (see ChangeFeed).
+-- Every inserted, updated or deleted row appends an entry, clients poll the highest entry ID every few seconds
+-- (one primary key lookup) and reload changed data only if something has changed.
+-- Without this script the application refreshes the item list blindly every 10 minutes.
+
+CREATE TABLE change_log (
+    id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    table_name VARCHAR(32) NOT NULL,
+    row_id INT NOT NULL,
+    changed_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    INDEX change_log_changed_at (changed_at)
+);
+
+CREATE TRIGGER item_after_insert_log AFTER INSERT ON item FOR EACH ROW
+    INSERT INTO change_log (table_name, row_id) VALUES ('item', NEW.id);
+CREATE TRIGGER item_after_update_log AFTER UPDATE ON item FOR EACH ROW
+    INSERT INTO change_log (table_name, row_id) VALUES ('item', NEW.id);
+CREATE TRIGGER item_after_delete_log AFTER DELETE ON item FOR EACH ROW FOLLOWS item_after_delete
+    INSERT INTO change_log (table_name, row_id) VALUES ('item', OLD.id);
+
+CREATE TRIGGER category_after_insert_log AFTER INSERT ON category FOR EACH ROW
+    INSERT INTO change_log (table_name, row_id) VALUES ('category', NEW.id);
+CREATE TRIGGER category_after_update_log AFTER UPDATE ON category FOR EACH ROW
+    INSERT INTO change_log (table_name, row_id) VALUES ('category', NEW.id);
+CREATE TRIGGER category_after_delete_log AFTER DELETE ON category FOR EACH ROW
+    INSERT INTO change_log (table_name, row_id) VALUES ('category', OLD.id);
+
+GRANT SELECT ON change_log TO 'basic-user'@'%', 'admin-user'@'%';
+
+-- polling clients need only the newest entries, the newest one is kept
+-- (AUTO_INCREMENT of an empty table may restart after server restart in MySQL 5.7)
+-- (requires event_scheduler = ON)
+CREATE EVENT change_log_cleanup ON SCHEDULE EVERY 1 DAY
+    DO DELETE FROM change_log WHERE changed_at < NOW(3) - INTERVAL 1 DAY
+        AND id < (SELECT max_id FROM (SELECT MAX(id) AS max_id FROM change_log) AS newest);
@@ -0,0 +1,19 @@
+-- Time of the move copied into move_item, so the history of one item is read in the order of a single
+-- index (see ItemDAO.getItemTransactions). A page is one index range read whatever the history size,
+-- with move (time, id) the history of an item had to be joined and sorted as a whole for every page.
+-- Written by ItemDAO.insertMoveItems, the trigger fills the time of rows inserted by older clients.
+-- Without this script the history is ordered by move.time (whole history of the item sorted for every page).
+
+ALTER TABLE move_item ADD COLUMN time DATETIME NULL;
+
+UPDATE move_item JOIN move ON move_item.move_id = move.id SET move_item.time = move.time;
+
+-- NOT NULL is checked after BEFORE INSERT triggers (MySQL 5.7+)
+ALTER TABLE move_item MODIFY COLUMN time DATETIME NOT NULL;
+
+CREATE TRIGGER move_item_before_insert BEFORE INSERT ON move_item FOR EACH ROW
+    SET NEW.time = COALESCE(NEW.time, (SELECT move.time FROM move WHERE move.id = NEW.move_id));
+
+-- replaces move_item_item_move (005), its prefix item_id serves the same lookups
+CREATE INDEX move_item_item_time ON move_item (item_id, time, move_id, expiration);
+DROP INDEX move_item_item_move ON move_item;
@@ -66,58 +66,33 @@ public class AccountDAO {
         // blank password not allowed
         if (newAccount.getPassword().equals("")) throw new UserWarningException("Prosím vyplňte heslo.");
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        Savepoint savepoint1 = null;
-
-        try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
+        TransactionRunner.getInstance().run("account-create", Connection.TRANSACTION_SERIALIZABLE,
+                TransactionRunner.NO_ITEM, conn -> {
             // verify whether username is not occupied
-            statement = conn.prepareStatement(
-                    "SELECT * FROM account WHERE login = ?");
-            statement.setString(1, newAccount.getLogin());
-            result = statement.executeQuery();
-            if (result.next()) {
-                String name = result.getString("name");
-                String surname = result.getString("surname");
-                throw new UserWarningException("Login je už obsadený. (" + name + " " + surname + ")");
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "SELECT * FROM account WHERE login = ?")) {
+                statement.setString(1, newAccount.getLogin());
+                try (ResultSet result = statement.executeQuery()) {
+                    if (result.next()) {
+                        String name = result.getString("name");
+                        String surname = result.getString("surname");
+                        throw new UserWarningException("Login je už obsadený. (" + name + " " + surname + ")");
+                    }
+                }
             }
 
             // create new account
-            statement = conn.prepareStatement(
-                    "INSERT INTO account SET name = ?, surname = ?, login = ?, password = sha2(?,256), admin = ?");
-            statement.setString(1, newAccount.getName());
-            statement.setString(2, newAccount.getSurname());
-            statement.setString(3, newAccount.getLogin());
-            statement.setString(4, newAccount.getPassword());
-            statement.setBoolean(5, newAccount.isAdmin());
-
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            conn.commit();
-
-        } catch (Exception e) {
-            try {
-                assert conn != null;
-                conn.rollback(savepoint1);
-            } catch (SQLException ex) {
-                ex.printStackTrace();
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "INSERT INTO account SET name = ?, surname = ?, login = ?, password = sha2(?,256), admin = ?")) {
+                statement.setString(1, newAccount.getName());
+                statement.setString(2, newAccount.getSurname());
+                statement.setString(3, newAccount.getLogin());
+                statement.setString(4, newAccount.getPassword());
+                statement.setBoolean(5, newAccount.isAdmin());
+                if (statement.executeUpdate() != 1) throw new SQLException();
             }
-            throw e;
-        } finally {
-            try {
-                if (result != null) result.close();
-                if (statement != null) statement.close();
-                if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
+            return null;
+        });
     }
 
     /**
@@ -139,64 +114,32 @@ public class AccountDAO {
                 throw new UserWarningException("Mená vie meniť len administrátor.");
         }
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        Savepoint savepoint1 = null;
-
-        try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
+        TransactionRunner.getInstance().run("account-modify", Connection.TRANSACTION_SERIALIZABLE,
+                TransactionRunner.NO_ITEM, conn -> {
             // verify whether account still exists and is not being changed
-            statement = conn.prepareStatement(
-                    "SELECT * FROM account WHERE id = ?");
-            statement.setInt(1, targetAccount.getId());
-            result = statement.executeQuery();
-            if (!result.next()) {
+            if (!exists(conn, "SELECT 1 FROM account WHERE id = ?", targetAccount.getId()))
                 throw new UserWarningException("Zvolené konto (už) neexistuje.");
-            }
 
             // modify account
-            if (targetAccount.getPassword().equals("")) {
-                // no password -> do not modify password (blank password is not allowed)
-                statement = conn.prepareStatement(
-                        "UPDATE account SET name = ?, surname = ?, login = ?, admin = ? WHERE id = ?");
-                statement.setInt(5, targetAccount.getId());
-            } else {
-                statement = conn.prepareStatement(
-                        "UPDATE account SET name = ?, surname = ?, login = ?, admin = ?, password = sha2(?,256) WHERE id = ?");
-                statement.setString(5, targetAccount.getPassword());
-                statement.setInt(6, targetAccount.getId());
+            String sql = targetAccount.getPassword().equals("") ?
+                    // no password -> do not modify password (blank password is not allowed)
+                    "UPDATE account SET name = ?, surname = ?, login = ?, admin = ? WHERE id = ?" :
+                    "UPDATE account SET name = ?, surname = ?, login = ?, admin = ?, password = sha2(?,256) WHERE id = ?";
+            try (PreparedStatement statement = conn.prepareStatement(sql)) {
+                if (targetAccount.getPassword().equals("")) {
+                    statement.setInt(5, targetAccount.getId());
+                } else {
+                    statement.setString(5, targetAccount.getPassword());
+                    statement.setInt(6, targetAccount.getId());
+                }
+                statement.setString(1, targetAccount.getName());
+                statement.setString(2, targetAccount.getSurname());
+                statement.setString(3, targetAccount.getLogin());
+                statement.setBoolean(4, targetAccount.isAdmin());
+                if (statement.executeUpdate() != 1) throw new SQLException();
             }
-            statement.setString(1, targetAccount.getName());
-            statement.setString(2, targetAccount.getSurname());
-            statement.setString(3, targetAccount.getLogin());
-            statement.setBoolean(4, targetAccount.isAdmin());
-
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            conn.commit();
-
-        } catch (Exception e) {
-            try {
-                assert conn != null;
-                conn.rollback(savepoint1);
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-            }
-            throw e;
-        } finally {
-            try {
-                if (result != null) result.close();
-                if (statement != null) statement.close();
-                if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
+            return null;
+        });
     }
 
     /**
@@ -245,77 +188,56 @@ public class AccountDAO {
         if (accountToDelete == null) throw new NullPointerException();
         if (accountToDelete.getId() == 1) throw new IllegalArgumentException(); // no change to 'trash' user
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        Savepoint savepoint1 = null;
-
-        try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
+        TransactionRunner.getInstance().run("account-delete", Connection.TRANSACTION_SERIALIZABLE,
+                TransactionRunner.NO_ITEM, conn -> {
             // verify whether account to be deleted exists
-            statement = conn.prepareStatement(
-                    "SELECT 1 FROM account WHERE id = ?");
-            statement.setInt(1, accountToDelete.getId());
-            result = statement.executeQuery();
-            if (!result.next()) throw new UserWarningException("Zvolené konto (už) neexistuje.");
+            if (!exists(conn, "SELECT 1 FROM account WHERE id = ?", accountToDelete.getId()))
+                throw new UserWarningException("Zvolené konto (už) neexistuje.");
 
             // restrict deletion of the last administrator account
-            statement = conn.prepareStatement(
-                    "SELECT 1 FROM account WHERE id <> ? and admin = 1");
-            statement.setInt(1, accountToDelete.getId());
-            result = statement.executeQuery();
-            if (!result.next()) throw new UserWarningException("Nemožno odstrániť posledného administrátora.");
+            if (!exists(conn, "SELECT 1 FROM account WHERE id <> ? and admin = 1", accountToDelete.getId()))
+                throw new UserWarningException("Nemožno odstrániť posledného administrátora.");
 
             // verify whether transactions with given userId exist
-            statement = conn.prepareStatement(
-                    "SELECT 1 FROM move WHERE account_id = ?");
-            statement.setInt(1, accountToDelete.getId());
-            result = statement.executeQuery();
-            if (result.next()) {
+            if (exists(conn, "SELECT 1 FROM move WHERE account_id = ?", accountToDelete.getId())) {
                 // some transactions are associated with account to be deleted
                 if (accountToTakeOver == null) throw new NullPointerException();
                 // verify that account to take over exists
-                statement = conn.prepareStatement(
-                        "SELECT 1 FROM account WHERE id = ?");
-                statement.setInt(1, accountToTakeOver.getId());
-                result = statement.executeQuery();
-                if (!result.next()) throw new UserWarningException("Konto na prevzatie transakcii (už) neexistuje.");
+                if (!exists(conn, "SELECT 1 FROM account WHERE id = ?", accountToTakeOver.getId()))
+                    throw new UserWarningException("Konto na prevzatie transakcii (už) neexistuje.");
+
+                // consumption of the account taken over by 'trash' becomes trash
+                if (accountToTakeOver.getId() == 1) ConsumptionRollup.reassignToTrash(conn, accountToDelete.getId());
 
                 // 'move' transactions to the other account
-                statement = conn.prepareStatement(
-                        "UPDATE move SET account_id = ? WHERE account_id = ?");
-                statement.setInt(1, accountToTakeOver.getId());
-                statement.setInt(2, accountToDelete.getId());
-                if (statement.executeUpdate() < 1) throw new SQLException();
+                try (PreparedStatement statement = conn.prepareStatement(
+                        "UPDATE move SET account_id = ? WHERE account_id = ?")) {
+                    statement.setInt(1, accountToTakeOver.getId());
+                    statement.setInt(2, accountToDelete.getId());
+                    if (statement.executeUpdate() < 1) throw new SQLException();
+                }
             }
 
             // delete account record
-            statement = conn.prepareStatement("DELETE FROM account WHERE id = ?");
-            statement.setInt(1, accountToDelete.getId());
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            conn.commit();
-
-        } catch (Throwable e) {
-            e.printStackTrace();
-            try {
-                assert conn != null;
-                conn.rollback(savepoint1);
-            } catch (SQLException ex) {
-                ex.printStackTrace();
+            try (PreparedStatement statement = conn.prepareStatement("DELETE FROM account WHERE id = ?")) {
+                statement.setInt(1, accountToDelete.getId());
+                if (statement.executeUpdate() != 1) throw new SQLException();
             }
-            throw e;
-        } finally {
-            try {
-                if (result != null) result.close();
-                if (statement != null) statement.close();
-                if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
-            } catch (SQLException e) {
-                e.printStackTrace();
+            return null;
+        });
+        // consumption of the account may have become trash
+        if (accountToTakeOver != null && accountToTakeOver.getId() == 1)
+            ReportCache.getInstance().invalidate(ReportCache.Report.CONSUMPTION);
+    }
+
+    /**
+     * @return true if the query with one integer parameter returns any row
+     */
+    private static boolean exists(Connection conn, String sql, int parameter) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, parameter);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next();
             }
         }
     }
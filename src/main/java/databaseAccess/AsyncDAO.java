@@ -0,0 +1,267 @@
+package databaseAccess;
+
+import domain.Account;
+import domain.ConsumptionOverviewRecord;
+import domain.CustomAttribute;
+import domain.ExpiryDateWarningRecord;
+import domain.Item;
+import domain.ItemMoveLogRecord;
+import domain.ItemOfftakeRecord;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs DAO requests outside of JavaFX Application Thread.
+ * Every request returns CompletableFuture, cancelling the future interrupts the worker.
+ * Singleton.
+ */
+
+public class AsyncDAO {
+    // singleton
+    private AsyncDAO() {}
+    private static final AsyncDAO asyncDAO = new AsyncDAO();
+    public static AsyncDAO getInstance() { return asyncDAO; }
+
+    // no more workers than connections in the pool
+    private static final int MAX_WORKERS = 10;
+
+    private final ExecutorService executor = createExecutor();
+
+    /**
+     * Task performing DB request(s).
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    public interface DatabaseTask<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Uses virtual threads when running on JDK which provides them, daemon thread pool otherwise.
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadCounter = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "db-worker-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newFixedThreadPool(MAX_WORKERS, threadFactory);
+        }
+    }
+
+    /**
+     * Submits arbitrary DB task.
+     * @param task task to be executed
+     * @return future result of the task
+     */
+    public <T> CompletableFuture<T> submit(DatabaseTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> running = executor.submit(() -> {
+            if (future.isDone()) return; // cancelled before start
+            try {
+                future.complete(task.run());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        future.whenComplete((result, exception) -> {
+            if (future.isCancelled()) running.cancel(true);
+        });
+        return future;
+    }
+
+    /**
+     * Hands over result (or failure) of the future to JavaFX Application Thread.
+     * Nothing is delivered if the future has been cancelled.
+     * @param future future to wait for
+     * @param onSuccess consumer of the result
+     * @param onFailure consumer of the cause of failure
+     */
+    public static <T> void deliver(CompletableFuture<T> future, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        future.whenComplete((result, exception) -> Platform.runLater(() -> {
+            if (future.isCancelled()) return;
+            if (exception == null) {
+                onSuccess.accept(result);
+                return;
+            }
+            Throwable cause = exception instanceof CompletionException && exception.getCause() != null ?
+                    exception.getCause() : exception;
+            if (!(cause instanceof CancellationException)) onFailure.accept(cause);
+        }));
+    }
+
+    // ITEMS
+
+    public CompletableFuture<List<Item>> reloadItemList() {
+        return submit(() -> {
+            ItemDAO.getInstance().reloadItemList();
+            return ItemDAO.getInstance().getItemList();
+        });
+    }
+
+    public CompletableFuture<ArrayList<Item>> searchItems(String searchPattern) {
+        return submit(() -> ItemDAO.getInstance().searchItems(searchPattern));
+    }
+
+    /**
+     * Searches items, parts of the result are handed over to JavaFX Application Thread as they are read.
+     * Cancelling the future cancels the statement running on the server.
+     * @param searchPattern part of the name or barcode of the item
+     * @param onChunk consumer of result parts (not called after the future has been cancelled)
+     * @return future complete result
+     */
+    public CompletableFuture<ArrayList<Item>> searchItems(String searchPattern, Consumer<List<Item>> onChunk) {
+        SearchQuery query = new SearchQuery();
+        CompletableFuture<ArrayList<Item>> future = new CompletableFuture<>();
+        CompletableFuture<ArrayList<Item>> search = submit(() -> ItemDAO.getInstance().searchItems(searchPattern,
+                query, chunk -> Platform.runLater(() -> {
+                    if (!future.isCancelled()) onChunk.accept(chunk);
+                })));
+        search.whenComplete((items, exception) -> {
+            if (exception == null) {
+                future.complete(items);
+            } else {
+                future.completeExceptionally(exception);
+            }
+        });
+        future.whenComplete((items, exception) -> {
+            if (future.isCancelled()) {
+                query.cancel();
+                search.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<Item> findItemByBarcode(String barcode) {
+        return submit(() -> ItemDAO.getInstance().findItemByBarcode(barcode));
+    }
+
+    public CompletableFuture<HashSet<CustomAttribute>> getItemCustomAttributes(int itemId) {
+        return submit(() -> ItemDAO.getInstance().getItemCustomAttributes(itemId));
+    }
+
+    /**
+     * @param after last record of the previous page, null for the first page
+     * @return future page of the item log
+     */
+    public CompletableFuture<ArrayList<ItemMoveLogRecord>> getItemTransactions(int itemId, LocalDate from,
+            LocalDate to, ItemMoveLogRecord after, int limit) {
+        return submit(() -> ItemDAO.getInstance().getItemTransactions(itemId, from, to, after, limit));
+    }
+
+    public CompletableFuture<List<ItemOfftakeRecord>> getItemVarieties(int itemId) {
+        return submit(() -> {
+            ObservableList<ItemOfftakeRecord> records = FXCollections.observableArrayList();
+            ItemDAO.getInstance().getItemVarieties(itemId, records);
+            return records;
+        });
+    }
+
+    /**
+     * @return future state of the item after the supply
+     */
+    public CompletableFuture<Item> itemSupply(int itemId, int supplyAmount, LocalDate expiration) {
+        return submit(() -> ItemDAO.getInstance().itemSupply(itemId, supplyAmount, expiration));
+    }
+
+    /**
+     * @param requestList copy of requested varieties (not bound to any UI control)
+     * @return future state of the item after the offtake
+     */
+    public CompletableFuture<Item> itemOfftake(Item item, ObservableList<ItemOfftakeRecord> requestList,
+                                               boolean isTrash) {
+        return submit(() -> isTrash ?
+                ItemDAO.getInstance().itemTrash(item, requestList) :
+                ItemDAO.getInstance().itemOfftake(item, requestList));
+    }
+
+    public CompletableFuture<Void> rebuildStockLots() {
+        return submit(() -> {
+            ItemDAO.getInstance().rebuildStockLots();
+            return null;
+        });
+    }
+
+    // CATEGORIES
+
+    public CompletableFuture<Void> reloadCatList() {
+        return submit(() -> {
+            CategoryDAO.getInstance().reloadCatList();
+            return null;
+        });
+    }
+
+    // ACCOUNTS
+
+    public CompletableFuture<List<Account>> getAccounts() {
+        return submit(() -> {
+            ObservableList<Account> accounts = FXCollections.observableArrayList();
+            AccountDAO.getInstance().getAccounts(accounts);
+            return accounts;
+        });
+    }
+
+    // REPORTS
+
+    public CompletableFuture<List<ExpiryDateWarningRecord>> getSoonExpiryItems() {
+        return submit(() -> {
+            ObservableList<ExpiryDateWarningRecord> records = FXCollections.observableArrayList();
+            ComplexQueryHandler.getInstance().getSoonExpiryItems(records);
+            return records;
+        });
+    }
+
+    public CompletableFuture<List<ExpiryDateWarningRecord>> getSoonExpiryItems(ExpiryIndex.Horizon horizon) {
+        return submit(() -> {
+            ObservableList<ExpiryDateWarningRecord> records = FXCollections.observableArrayList();
+            ComplexQueryHandler.getInstance().getSoonExpiryItems(records, horizon);
+            return records;
+        });
+    }
+
+    public CompletableFuture<List<Item>> getLowStockItems() {
+        return submit(() -> {
+            ObservableList<Item> items = FXCollections.observableArrayList();
+            ComplexQueryHandler.getInstance().getLowStockItems(items);
+            return items;
+        });
+    }
+
+    public CompletableFuture<Void> rebuildConsumptionRollups() {
+        return submit(() -> {
+            ComplexQueryHandler.getInstance().rebuildConsumptionRollups();
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<ConsumptionOverviewRecord>> getConsumptionOverviewRecords() {
+        return submit(() -> {
+            ObservableList<ConsumptionOverviewRecord> records = FXCollections.observableArrayList();
+            ComplexQueryHandler.getInstance().getConsumptionOverviewRecords(records);
+            return records;
+        });
+    }
+
+}
@@ -0,0 +1,90 @@
+package databaseAccess;
+
+import domain.CustomAttribute;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Custom attributes of items (item ID -> attributes), least recently used items are evicted
+ * once the cache holds more than MAX_ITEMS items. Items without attributes are cached too.
+ * Entries loaded while the cache was invalidated are discarded (they may be stale).
+ * Thread-safe.
+ */
+
+class AttributeCache {
+    private static final int MAX_ITEMS = 20000;
+    private static final CustomAttribute[] NO_ATTRIBUTES = new CustomAttribute[0];
+
+    // access order - iteration starts with the least recently used item
+    private final LinkedHashMap<Integer, CustomAttribute[]> attributes =
+            new LinkedHashMap<Integer, CustomAttribute[]>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, CustomAttribute[]> eldest) {
+                    return size() > MAX_ITEMS;
+                }
+            };
+    // incremented by every invalidation
+    private long generation = 0;
+
+    /**
+     * @return generation to be passed to put methods with data loaded after this call
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return copy of cached attributes of the item, null if the item is not cached
+     */
+    synchronized HashSet<CustomAttribute> get(int itemId) {
+        CustomAttribute[] cached = attributes.get(itemId);
+        return cached == null ? null : new HashSet<>(Arrays.asList(cached));
+    }
+
+    /**
+     * Caches attributes of one item unless the cache has been invalidated since the generation.
+     */
+    synchronized void put(int itemId, Collection<CustomAttribute> itemAttributes, long loadedGeneration) {
+        if (loadedGeneration != generation) return;
+        attributes.put(itemId, toArray(itemAttributes));
+    }
+
+    /**
+     * Caches attributes of all items unless the cache has been invalidated since the generation.
+     * @param itemIds IDs of all items (items missing in itemAttributes have no attributes)
+     * @param itemAttributes attributes of items which have any
+     */
+    synchronized void putAll(Collection<Integer> itemIds, Map<Integer, ? extends Collection<CustomAttribute>> itemAttributes,
+                             long loadedGeneration) {
+        if (loadedGeneration != generation) return;
+        for (int itemId : itemIds) {
+            Collection<CustomAttribute> loaded = itemAttributes.get(itemId);
+            attributes.put(itemId, loaded == null ? NO_ATTRIBUTES : toArray(loaded));
+        }
+    }
+
+    /**
+     * Drops attributes of the item (changed or deleted).
+     */
+    synchronized void invalidate(int itemId) {
+        generation++;
+        attributes.remove(itemId);
+    }
+
+    /**
+     * Drops attributes of all items (e.g. on logoff).
+     */
+    synchronized void clear() {
+        generation++;
+        attributes.clear();
+    }
+
+    private static CustomAttribute[] toArray(Collection<CustomAttribute> itemAttributes) {
+        return itemAttributes.isEmpty() ? NO_ATTRIBUTES : itemAttributes.toArray(new CustomAttribute[0]);
+    }
+
+}
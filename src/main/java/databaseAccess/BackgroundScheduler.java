@@ -0,0 +1,222 @@
+package databaseAccess;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs all periodic background work (table refresh, expiry checks, rollup maintenance, pool housekeeping).
+ * Every job is rescheduled after its run finishes (runs of one job never overlap), delays are randomized
+ * by +-JITTER so clients started at the same time do not query the DB in lockstep.
+ * Pausable jobs are skipped while the scheduler is paused (e.g. modal dialog is open),
+ * a job which missed its run is run right after resume.
+ * Collects run counts and times per job.
+ * Singleton. Thread-safe.
+ */
+
+public class BackgroundScheduler {
+    // singleton
+    private BackgroundScheduler() {}
+    private static final BackgroundScheduler backgroundScheduler = new BackgroundScheduler();
+    public static BackgroundScheduler getInstance() { return backgroundScheduler; }
+
+    private static final int THREADS = 2;
+    // delays are randomized by this fraction of the interval
+    private static final double JITTER = 0.2;
+
+    private final ScheduledThreadPoolExecutor executor = createExecutor();
+    private final Set<Job> jobs = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, JobStatistics> statistics = new ConcurrentHashMap<>();
+    // guarded by this
+    private boolean paused = false;
+
+    /**
+     * Body of the job.
+     */
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private static ScheduledThreadPoolExecutor createExecutor() {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "background-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Run statistics of one job (all jobs of the same name).
+     */
+    public static class JobStatistics {
+        private final LongAdder runs = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos, boolean failed) {
+            runs.increment();
+            if (failed) failures.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getRuns() { return runs.sum(); }
+        // runs which threw an exception
+        public long getFailures() { return failures.sum(); }
+        // runs skipped while the scheduler was paused
+        public long getSkipped() { return skipped.sum(); }
+
+        public double getAverageMillis() {
+            long n = runs.sum();
+            return n == 0 ? 0 : totalNanos.sum() / (n * 1e6);
+        }
+
+        public double getMaxMillis() { return maxNanos.get() / 1e6; }
+
+        public String toString() {
+            return String.format("%d x, %d failed, %d skipped, avg %.3f ms, max %.3f ms",
+                    getRuns(), getFailures(), getSkipped(), getAverageMillis(), getMaxMillis());
+        }
+    }
+
+    /**
+     * Scheduled periodic job.
+     */
+    public final class Job {
+        private final String name;
+        private final long intervalMillis;
+        private final boolean pausable;
+        private final Task task;
+        private final JobStatistics jobStatistics;
+        // guarded by BackgroundScheduler.this
+        private ScheduledFuture<?> next;
+        private boolean cancelled = false;
+        private boolean missed = false;
+
+        private Job(String name, long intervalMillis, boolean pausable, Task task) {
+            this.name = name;
+            this.intervalMillis = intervalMillis;
+            this.pausable = pausable;
+            this.task = task;
+            this.jobStatistics = statistics.computeIfAbsent(name, key -> new JobStatistics());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Stops the job, run in progress is finished (not interrupted).
+         */
+        public void cancel() {
+            synchronized (BackgroundScheduler.this) {
+                cancelled = true;
+                if (next != null) next.cancel(false);
+            }
+            jobs.remove(this);
+        }
+
+        private void fire() {
+            synchronized (BackgroundScheduler.this) {
+                if (cancelled) return;
+                if (pausable && paused) {
+                    // run after resume
+                    missed = true;
+                    jobStatistics.skipped.increment();
+                    return;
+                }
+            }
+            boolean failed = false;
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (Exception e) {
+                // failure of one run must not stop the periodic job
+                failed = true;
+                e.printStackTrace();
+            } finally {
+                jobStatistics.record(System.nanoTime() - start, failed);
+            }
+            scheduleNext(jittered(intervalMillis));
+        }
+
+        private void scheduleNext(long delayMillis) {
+            synchronized (BackgroundScheduler.this) {
+                if (!cancelled) next = executor.schedule(this::fire, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Schedules periodic job.
+     * @param name name of the job (statistics)
+     * @param initialDelayMillis delay of the first run (randomized unless 0)
+     * @param intervalMillis delay between the end of one run and the start of the next one (randomized)
+     * @param pausable true if the job is not run while the scheduler is paused
+     * @param task body of the job
+     * @return the job (to be cancelled)
+     */
+    public Job schedule(String name, long initialDelayMillis, long intervalMillis, boolean pausable, Task task) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException();
+        Job job = new Job(name, intervalMillis, pausable, task);
+        jobs.add(job);
+        job.scheduleNext(jittered(initialDelayMillis));
+        return job;
+    }
+
+    private static long jittered(long millis) {
+        if (millis <= 0) return 0;
+        return (long) (millis * (1 - JITTER + 2 * JITTER * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * Stops running of pausable jobs until resume.
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Continues running of pausable jobs, jobs which missed their run are run immediately.
+     */
+    public synchronized void resume() {
+        paused = false;
+        for (Job job : jobs) {
+            if (!job.missed) continue;
+            job.missed = false;
+            job.scheduleNext(0);
+        }
+    }
+
+    /**
+     * @return statistics of all jobs sorted by name
+     */
+    public Map<String, JobStatistics> getStatistics() {
+        return new TreeMap<>(statistics);
+    }
+
+    /**
+     * @return human readable overview of all jobs
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, JobStatistics> entry : getStatistics().entrySet())
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return builder.toString();
+    }
+
+}
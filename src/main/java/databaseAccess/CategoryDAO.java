@@ -2,14 +2,22 @@ package databaseAccess;
 
 import databaseAccess.CustomExceptions.UserWarningException;
 import domain.Category;
+import domain.Item;
 
 import java.sql.*;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages communication with DB related to Category.
- * Provides actual category list.
- * Singleton.
+ * Provides actual category list. The list is versioned and reloaded only when categories are changed
+ * (by this application or, as detected by items of unknown categories, by other clients).
+ * Each reload publishes an immutable snapshot, readers do not lock.
+ * Singleton. Thread-safe.
  */
 
 public class CategoryDAO {
@@ -18,8 +26,57 @@ public class CategoryDAO {
     private static final CategoryDAO categoryDAO = new CategoryDAO();
     public static CategoryDAO getInstance() { return categoryDAO; }
 
-    // lastly retrieved map of categories (Key = ID of the category)
-    private HashMap<Integer, Category> categoryMap = new HashMap<>();
+    // categories are reloaded at least this often (changes of other clients)
+    private static final long MAX_AGE_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * Immutable state of the category list published by one reload.
+     */
+    public static final class Snapshot {
+        private final Map<Integer, Category> categories;
+        private final long version;
+        // sequence number of the reload which read the categories
+        private final long load;
+        private final long loadedAt;
+        // number of category changes of this application visible to the reload, -1 if unknown
+        private final long changes;
+
+        private Snapshot(Map<Integer, Category> categories, long version, long load, long loadedAt, long changes) {
+            this.categories = Collections.unmodifiableMap(categories);
+            this.version = version;
+            this.load = load;
+            this.loadedAt = loadedAt;
+            this.changes = changes;
+        }
+
+        /**
+         * @return version of the category list, changes whenever a snapshot is published
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return category with the ID, null if there is none
+         */
+        public Category get(int categoryId) {
+            return categories.get(categoryId);
+        }
+
+        /**
+         * @return unmodifiable map of categories (Key = ID of the category)
+         */
+        public Map<Integer, Category> getMap() {
+            return categories;
+        }
+    }
+
+    // lastly published categories
+    private final AtomicReference<Snapshot> snapshot =
+            new AtomicReference<>(new Snapshot(new HashMap<>(), 0, 0, 0, -1));
+    private final AtomicLong loads = new AtomicLong();
+    // categories changed by this application (create / modify / delete) or reported by ChangeFeed
+    private final AtomicLong changes = new AtomicLong();
 
     /**
      * Reloads map of current categories from DB.
@@ -27,6 +84,9 @@ public class CategoryDAO {
     public void reloadCatList() throws Exception {
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
 
+        // changes committed after this point are read again by the next reload
+        long load = loads.incrementAndGet();
+        long changesBefore = changes.get();
         Connection conn = null;
         PreparedStatement statement = null;
         ResultSet result = null;
@@ -56,21 +116,74 @@ public class CategoryDAO {
                 e.printStackTrace();
             }
         }
-        categoryMap = newCategoryMap;
+        publish(newCategoryMap, load, changesBefore);
     }
 
     /**
-     * @return lastly retrieved map of categories
+     * Reloads categories only if they have been changed by this application, are older than MAX_AGE_MILLIS
+     * or some of the items belong to an unknown category (created by other client).
+     * @param items currently loaded items
      */
-    public HashMap<Integer,Category> getCategoryMap() {
-        return categoryMap;
+    public void reloadCatListIfNeeded(Collection<Item> items) throws Exception {
+        Snapshot current = snapshot.get();
+        boolean needed = current.changes != changes.get()
+                || System.currentTimeMillis() - current.loadedAt > MAX_AGE_MILLIS;
+        if (!needed) {
+            for (Item item : items) {
+                if (current.get(item.getCategory()) == null) {
+                    needed = true;
+                    break;
+                }
+            }
+        }
+        if (needed) reloadCatList();
+    }
+
+    // result of an older reload finished after a newer one is dropped
+    private void publish(HashMap<Integer, Category> categories, long load, long changesBefore) {
+        while (true) {
+            Snapshot current = snapshot.get();
+            if (current.load > load) return;
+            Snapshot published = new Snapshot(categories, current.version + 1, load, System.currentTimeMillis(),
+                    changesBefore);
+            if (snapshot.compareAndSet(current, published)) return;
+        }
+    }
+
+    /**
+     * @return lastly published categories (the same instances until the next reload)
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return lastly retrieved map of categories (unmodifiable)
+     */
+    public Map<Integer, Category> getCategoryMap() {
+        return snapshot.get().getMap();
+    }
+
+    /**
+     * @return version of the category map, changes whenever the map is replaced
+     */
+    public long getVersion() {
+        return snapshot.get().getVersion();
+    }
+
+    /**
+     * Marks categories changed by other client, they are reloaded by the next item reload.
+     */
+    void changedElsewhere() {
+        changes.incrementAndGet();
     }
 
     /**
      * Removes all cached records (e.g. on logoff).
      */
     public void dropCategoryMap() {
-        categoryMap.clear();
+        // unknown changes - the next reload is required
+        publish(new HashMap<>(), loads.incrementAndGet(), -1);
     }
 
     /**
@@ -82,52 +195,23 @@ public class CategoryDAO {
         if (targetCategory == null) throw new NullPointerException();
         if (targetCategory.getId() == 1) throw new IllegalArgumentException(); // no change to default category
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        Savepoint savepoint1 = null;
-
-        try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
+        TransactionRunner.getInstance().run("category-modify", Connection.TRANSACTION_SERIALIZABLE,
+                TransactionRunner.NO_ITEM, conn -> {
             // verify whether category still exists / is not being modified
-            statement = conn.prepareStatement(
-                    "SELECT * FROM category WHERE id = ?");
-            statement.setInt(1, targetCategory.getId());
-            result = statement.executeQuery();
-            if (!result.next()) {
+            if (!exists(conn, "SELECT 1 FROM category WHERE id = ?", targetCategory.getId()))
                 throw new UserWarningException("Kategória (už) neexistuje.");
-            }
 
             // modify the category
-            statement = conn.prepareStatement("UPDATE category SET name = ?, note = ? WHERE id = ?");
-            statement.setString(1, targetCategory.getName());
-            statement.setString(2, targetCategory.getNote());
-            statement.setInt(3, targetCategory.getId());
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            conn.commit();
-
-        } catch (Exception e) {
-            try {
-                assert conn != null;
-                conn.rollback(savepoint1);
-            } catch (Exception ex) {
-                ex.printStackTrace();
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "UPDATE category SET name = ?, note = ? WHERE id = ?")) {
+                statement.setString(1, targetCategory.getName());
+                statement.setString(2, targetCategory.getNote());
+                statement.setInt(3, targetCategory.getId());
+                if (statement.executeUpdate() != 1) throw new SQLException();
             }
-            throw e;
-        } finally {
-            try {
-                if (result != null) result.close();
-                if (statement != null) statement.close();
-                if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-        }
+            return null;
+        });
+        changes.incrementAndGet();
     }
 
     /**
@@ -169,69 +253,38 @@ public class CategoryDAO {
      * @param categoryToTakeOver - category that takes all items from deleted one.
      */
     public void deleteCategory(Category categoryToDelete, Category categoryToTakeOver) throws Exception {
-            if (!Login.getInstance().hasAdmin()) throw new UserWarningException("Prihláste sa prosím.");
+        if (!Login.getInstance().hasAdmin()) throw new UserWarningException("Prihláste sa prosím.");
         if (categoryToDelete == null) throw new IllegalArgumentException();
         if (categoryToDelete.getId() == 1) throw new IllegalArgumentException(); // default category cannot be deleted
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        Savepoint savepoint1 = null;
-
-        try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
+        TransactionRunner.getInstance().run("category-delete", Connection.TRANSACTION_SERIALIZABLE,
+                TransactionRunner.NO_ITEM, conn -> {
             // check whether category to be deleted still exists
-            statement = conn.prepareStatement(
-                    "SELECT 1 FROM category WHERE id = ?");
-            statement.setInt(1, categoryToDelete.getId());
-            result = statement.executeQuery();
-            if (!result.next()) throw new UserWarningException("Zvolená kategoria (už) neexistuje.");
+            if (!exists(conn, "SELECT 1 FROM category WHERE id = ?", categoryToDelete.getId()))
+                throw new UserWarningException("Zvolená kategoria (už) neexistuje.");
 
             // check whether category to be deleted contains some items
-            statement = conn.prepareStatement(
-                    "SELECT 1 FROM item WHERE category = ?");
-            statement.setInt(1, categoryToDelete.getId());
-            result = statement.executeQuery();
-            if (result.next()) {
+            if (exists(conn, "SELECT 1 FROM item WHERE category = ?", categoryToDelete.getId())) {
                 // category to be deleted is not empty
                 if (categoryToTakeOver == null) throw new NullPointerException();
 
                 // set new category for affected items
-                statement = conn.prepareStatement(
-                        "UPDATE item SET category = ? WHERE category = ?");
-                statement.setInt(1, categoryToTakeOver.getId());
-                statement.setInt(2, categoryToDelete.getId());
-                if (statement.executeUpdate() < 1) throw new SQLException();
+                try (PreparedStatement statement = conn.prepareStatement(
+                        "UPDATE item SET category = ? WHERE category = ?")) {
+                    statement.setInt(1, categoryToTakeOver.getId());
+                    statement.setInt(2, categoryToDelete.getId());
+                    if (statement.executeUpdate() < 1) throw new SQLException();
+                }
             }
 
             // delete category record
-            statement = conn.prepareStatement("DELETE FROM category WHERE id = ?");
-            statement.setInt(1, categoryToDelete.getId());
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            conn.commit();
-
-        } catch (Throwable e) {
-            try {
-                assert conn != null;
-                conn.rollback(savepoint1);
-            } catch (SQLException ex) {
-                e.printStackTrace();
-            }
-            throw e;
-        } finally {
-            try {
-                if (result != null) result.close();
-                if (statement != null) statement.close();
-                if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
-            } catch (SQLException e) {
-                e.printStackTrace();
+            try (PreparedStatement statement = conn.prepareStatement("DELETE FROM category WHERE id = ?")) {
+                statement.setInt(1, categoryToDelete.getId());
+                if (statement.executeUpdate() != 1) throw new SQLException();
             }
-        }
+            return null;
+        });
+        changes.incrementAndGet();
     }
 
     /**
@@ -242,52 +295,38 @@ public class CategoryDAO {
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
         if (newCategory == null) throw new NullPointerException();
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        Savepoint savepoint1 = null;
-
-        try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
+        TransactionRunner.getInstance().run("category-create", Connection.TRANSACTION_SERIALIZABLE,
+                TransactionRunner.NO_ITEM, conn -> {
             // verify whether category name is not occupied
-            statement = conn.prepareStatement(
-                    "SELECT * FROM category WHERE name = ?");
-            statement.setString(1, newCategory.getName());
-            result = statement.executeQuery();
-            if (result.next()) {
-                throw new UserWarningException("Rovnomenná kategoória už existuje.");
+            try (PreparedStatement statement = conn.prepareStatement("SELECT 1 FROM category WHERE name = ?")) {
+                statement.setString(1, newCategory.getName());
+                try (ResultSet result = statement.executeQuery()) {
+                    if (result.next()) throw new UserWarningException("Rovnomenná kategoória už existuje.");
+                }
             }
 
             // create new category
-            statement = conn.prepareStatement(
-                    "INSERT INTO category SET name = ?, note = ?, color = ?, subcat_of = ?");
-            statement.setString(1, newCategory.getName());
-            statement.setString(2, newCategory.getNote());
-            statement.setString(3, newCategory.getColor());
-            statement.setInt(4, newCategory.getSubCatOf());
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            conn.commit();
-
-        } catch (Exception e) {
-            try {
-                assert conn != null;
-                conn.rollback(savepoint1);
-            } catch (SQLException ex) {
-                ex.printStackTrace();
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "INSERT INTO category SET name = ?, note = ?, color = ?, subcat_of = ?")) {
+                statement.setString(1, newCategory.getName());
+                statement.setString(2, newCategory.getNote());
+                statement.setString(3, newCategory.getColor());
+                statement.setInt(4, newCategory.getSubCatOf());
+                if (statement.executeUpdate() != 1) throw new SQLException();
             }
-            throw e;
-        } finally {
-            try {
-                if (result != null) result.close();
-                if (statement != null) statement.close();
-                if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
-            } catch (SQLException e) {
-                e.printStackTrace();
+            return null;
+        });
+        changes.incrementAndGet();
+    }
+
+    /**
+     * @return true if the query with one integer parameter returns any row
+     */
+    private static boolean exists(Connection conn, String sql, int parameter) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(sql)) {
+            statement.setInt(1, parameter);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next();
             }
         }
     }
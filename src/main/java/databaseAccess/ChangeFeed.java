@@ -0,0 +1,124 @@
+package databaseAccess;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Detects changes of items and categories made by any client (change_log table written by DB triggers).
+ * One poll reads only entries newer than the previously seen ones (primary key range), changed data
+ * itself is then read by the incremental reload of ItemDAO / CategoryDAO.
+ * Entries are numbered when inserted, not when committed - a missing ID may still appear, so entries above
+ * the first missing ID are read again until it appears or GAP_TIMEOUT_MILLIS passes (rolled back).
+ * Singleton. Thread-safe.
+ */
+
+public class ChangeFeed {
+    // singleton
+    private ChangeFeed() {}
+    private static final ChangeFeed changeFeed = new ChangeFeed();
+    public static ChangeFeed getInstance() { return changeFeed; }
+
+    // MySQL error code of missing table (change log not installed)
+    private static final int NO_SUCH_TABLE_ERROR = 1146;
+
+    public static final String ITEM_TABLE = "item";
+    public static final String CATEGORY_TABLE = "category";
+    private static final Set<String> ALL_TABLES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(ITEM_TABLE, CATEGORY_TABLE)));
+
+    private static final long GAP_TIMEOUT_MILLIS = 60 * 1000;
+
+    // all entries up to this ID have been seen, -1 before the first poll
+    private long seenUpTo = -1;
+    // seen entries above seenUpTo (some lower ID is missing)
+    private final TreeSet<Long> seenIds = new TreeSet<>();
+    // time since the lowest missing ID is awaited, 0 if none is missing
+    private long gapSince = 0;
+    private boolean available = true;
+
+    /**
+     * Reads entries added since the previous poll. Changed items and categories are marked for reload,
+     * cached items and expiry index are confirmed fresh if no item has changed.
+     * The first poll after login reports all tables (changes before it are not known).
+     * @return names of changed tables (empty if nothing has changed),
+     * null if the server has no change log (changes cannot be detected)
+     */
+    public synchronized Set<String> poll() throws Exception {
+        if (!available) return null;
+        if (!Login.getInstance().hasUser()) return Collections.emptySet();
+
+        Set<String> changedTables = new HashSet<>();
+        // nothing committed before this time is missed by the poll
+        long pollStart = System.currentTimeMillis();
+        Connection conn = ConnectionFactory.getInstance().getConnection();
+        try {
+            if (seenUpTo < 0) {
+                try (PreparedStatement statement = conn.prepareStatement(
+                        "SELECT COALESCE(MAX(id), 0) FROM change_log");
+                     ResultSet result = statement.executeQuery()) {
+                    result.next();
+                    seenUpTo = result.getLong(1);
+                }
+                changedTables.addAll(ALL_TABLES);
+            } else {
+                try (PreparedStatement statement = conn.prepareStatement(
+                        "SELECT id, table_name FROM change_log WHERE id > ? ORDER BY id")) {
+                    statement.setLong(1, seenUpTo);
+                    try (ResultSet result = statement.executeQuery()) {
+                        while (result.next())
+                            if (seenIds.add(result.getLong(1))) changedTables.add(result.getString(2));
+                    }
+                }
+                advance();
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() != NO_SUCH_TABLE_ERROR) throw e;
+            available = false;
+            return null;
+        } finally {
+            ConnectionFactory.getInstance().releaseConnection(conn);
+        }
+
+        if (changedTables.contains(ITEM_TABLE)) {
+            ItemDAO.changedElsewhere();
+            ExpiryIndex.getInstance().changedElsewhere();
+        } else {
+            ItemDAO.confirmUnchanged(pollStart);
+            ExpiryIndex.getInstance().confirmUnchanged(pollStart);
+        }
+        if (changedTables.contains(CATEGORY_TABLE)) CategoryDAO.getInstance().changedElsewhere();
+        return changedTables;
+    }
+
+    // moves seenUpTo over contiguous seen entries, skips IDs missing for too long
+    private void advance() {
+        while (!seenIds.isEmpty() && seenIds.first() == seenUpTo + 1) seenUpTo = seenIds.pollFirst();
+        if (seenIds.isEmpty()) {
+            gapSince = 0;
+        } else if (gapSince == 0) {
+            gapSince = System.currentTimeMillis();
+        } else if (System.currentTimeMillis() - gapSince > GAP_TIMEOUT_MILLIS) {
+            seenUpTo = seenIds.last();
+            seenIds.clear();
+            gapSince = 0;
+        }
+    }
+
+    /**
+     * Forgets the seen entries (e.g. on logoff).
+     */
+    public synchronized void reset() {
+        seenUpTo = -1;
+        seenIds.clear();
+        gapSince = 0;
+        available = true;
+    }
+
+}
@@ -11,6 +11,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class responsible for all cumulative DB queries.
@@ -23,28 +25,80 @@ public class ComplexQueryHandler {
     private ComplexQueryHandler() {}
     public static ComplexQueryHandler getInstance() { return queryHandler; }
 
+    private static final int NO_SUCH_TABLE_ERROR = 1146;
+    private static final int UNKNOWN_COLUMN_ERROR = 1054;
+    // periodic repair checks consumption totals of today and this many previous days
+    private static final int ROLLUP_REPAIR_DAYS = 1;
+
     /**
-     * Retrieves all soon expiry Items from DB.
+     * Retrieves all expired Items.
      * @param logRecords list to store retrieved data in.
      */
     public void getSoonExpiryItems(ObservableList<ExpiryDateWarningRecord> logRecords) throws Exception {
-        if (logRecords == null) throw new NullPointerException();
+        getSoonExpiryItems(logRecords, ExpiryIndex.Horizon.EXPIRED);
+    }
+
+    /**
+     * Retrieves all Items with stock expiring within the horizon (from expiry index if it is current).
+     * @param logRecords list to store retrieved data in.
+     * @param horizon time window of expiration
+     */
+    public void getSoonExpiryItems(ObservableList<ExpiryDateWarningRecord> logRecords, ExpiryIndex.Horizon horizon)
+            throws Exception {
+        if (logRecords == null || horizon == null) throw new NullPointerException();
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
 
+        logRecords.addAll(ReportCache.getInstance().get(ReportCache.Report.EXPIRY, horizon.name(), () -> {
+            List<ExpiryDateWarningRecord> records = new ArrayList<>();
+            querySoonExpiryItems(records, horizon);
+            return records;
+        }));
+    }
+
+    private void querySoonExpiryItems(List<ExpiryDateWarningRecord> logRecords, ExpiryIndex.Horizon horizon)
+            throws Exception {
+
+        if (ExpiryIndex.getInstance().isCurrent()) {
+            logRecords.addAll(ExpiryIndex.getInstance().getExpiring(horizon));
+            return;
+        }
+
         Connection conn = null;
         PreparedStatement statement = null;
         ResultSet result = null;
 
         try {
             conn = ConnectionFactory.getInstance().getConnection();
-            statement = conn.prepareStatement(
-                    "SELECT item.id, item.name, SUM(move_item.amount) AS expiry_amount \n" +
-                            "FROM (move_item JOIN item ON (move_item.item_id = item.id)) JOIN move ON move.id = move_item.move_id\n" +
-                            "WHERE move_item.expiration < NOW() \n" +
-                            "GROUP BY item.id\n" +
-                            "HAVING expiry_amount > 0\n" +
-                            "ORDER BY item.name ASC, move_item.expiration ASC");
-            result = statement.executeQuery();
+            if (ItemDAO.isStockLotAvailable()) {
+                // live lots only, no aggregation of the history
+                statement = conn.prepareStatement(
+                        "SELECT item.id, item.name, SUM(stock_lot.quantity) AS expiry_amount " +
+                                "FROM stock_lot JOIN item ON (stock_lot.item_id = item.id) " +
+                                "WHERE stock_lot.expiration <= CURDATE() + INTERVAL ? DAY " +
+                                "AND stock_lot.quantity > 0 " +
+                                "GROUP BY item.id, item.name " +
+                                "ORDER BY item.name ASC");
+                statement.setInt(1, horizon.getDays());
+                try {
+                    result = statement.executeQuery();
+                } catch (SQLException e) {
+                    if (!ItemDAO.isStockLotMissing(e)) throw e;
+                    statement.close();
+                    statement = null;
+                }
+            }
+            if (result == null) {
+                // stock lots not installed (sql/004-stock-lot.sql) - aggregated from the history of moves
+                statement = conn.prepareStatement(
+                        "SELECT item.id, item.name, SUM(move_item.amount) AS expiry_amount " +
+                                "FROM move_item JOIN item ON (move_item.item_id = item.id) " +
+                                "WHERE move_item.expiration <= CURDATE() + INTERVAL ? DAY " +
+                                "GROUP BY item.id, item.name " +
+                                "HAVING expiry_amount > 0 " +
+                                "ORDER BY item.name ASC");
+                statement.setInt(1, horizon.getDays());
+                result = statement.executeQuery();
+            }
             while (result.next())
                 logRecords.add(new ExpiryDateWarningRecord(
                         result.getInt("id"),
@@ -70,26 +124,39 @@ public class ComplexQueryHandler {
         if (items == null) throw new NullPointerException();
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
 
+        items.addAll(ReportCache.getInstance().get(ReportCache.Report.LOW_STOCK, "", () -> {
+            List<Item> records = new ArrayList<>();
+            queryLowStockItems(records);
+            return records;
+        }));
+    }
+
+    private void queryLowStockItems(List<Item> items) throws Exception {
+
+        ArrayList<Item> cached = ItemDAO.getInstance().getCachedLowStockItems();
+        if (cached != null) {
+            items.addAll(cached);
+            return;
+        }
+
         Connection conn = null;
         PreparedStatement statement = null;
         ResultSet result = null;
 
         try {
             conn = ConnectionFactory.getInstance().getConnection();
-            statement = conn.prepareStatement(
-                    "SELECT * FROM item WHERE item.cur_amount <= item.min_amount");
-            result = statement.executeQuery();
-            while (result.next())
-                items.add(new Item(
-                        result.getInt("id"),
-                        result.getString("name"),
-                        result.getString("barcode"),
-                        result.getInt("min_amount"),
-                        result.getInt("cur_amount"),
-                        result.getString("unit"),
-                        result.getString("note"),
-                        result.getInt("category")
-                ));
+            // indexed generated column (sql/008-item-low-stock.sql)
+            statement = conn.prepareStatement("SELECT * FROM item WHERE low_stock = 1 ORDER BY name");
+            try {
+                result = statement.executeQuery();
+            } catch (SQLException e) {
+                if (e.getErrorCode() != UNKNOWN_COLUMN_ERROR) throw e;
+                statement.close();
+                statement = conn.prepareStatement(
+                        "SELECT * FROM item WHERE item.cur_amount <= item.min_amount ORDER BY name");
+                result = statement.executeQuery();
+            }
+            while (result.next()) items.add(ItemDAO.readItem(result));
         } finally {
             try {
                 if (result != null) result.close();
@@ -101,6 +168,39 @@ public class ComplexQueryHandler {
         }
     }
 
+    /**
+     * Recalculates daily totals used by consumption overview from the history of moves.
+     */
+    public void rebuildConsumptionRollups() throws Exception {
+        if (!Login.getInstance().hasAdmin()) throw new UserWarningException("Nemáte dostatočné oprávnenia.");
+
+        TransactionRunner.getInstance().run("consumption-rollup-rebuild", Connection.TRANSACTION_SERIALIZABLE,
+                TransactionRunner.NO_ITEM, conn -> {
+            ConsumptionRollup.rebuild(conn);
+            return null;
+        });
+        ReportCache.getInstance().invalidate(ReportCache.Report.CONSUMPTION);
+    }
+
+    /**
+     * Repairs consumption totals of today and yesterday which differ from the history of moves
+     * (periodic maintenance, see ConsumptionRollup.repairRecent).
+     */
+    public void repairRecentConsumptionRollups() throws Exception {
+        if (!Login.getInstance().hasUser()) return;
+
+        int repaired;
+        try {
+            repaired = TransactionRunner.getInstance().run("consumption-rollup-repair",
+                    Connection.TRANSACTION_READ_COMMITTED, TransactionRunner.NO_ITEM,
+                    conn -> ConsumptionRollup.repairRecent(conn, ROLLUP_REPAIR_DAYS));
+        } catch (SQLException e) {
+            if (e.getErrorCode() == NO_SUCH_TABLE_ERROR) return; // rollups are not installed
+            throw e;
+        }
+        if (repaired > 0) ReportCache.getInstance().invalidate(ReportCache.Report.CONSUMPTION);
+    }
+
     /**
      * Retrieves average consumption and trash of all items.
      * @param records list to store retrieved data in.
@@ -109,57 +209,44 @@ public class ComplexQueryHandler {
         if (records == null) throw new NullPointerException();
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
 
+        records.addAll(ReportCache.getInstance().get(ReportCache.Report.CONSUMPTION, "", () -> {
+            List<ConsumptionOverviewRecord> overview = new ArrayList<>();
+            queryConsumptionOverviewRecords(overview);
+            return overview;
+        }));
+    }
+
+    private void queryConsumptionOverviewRecords(List<ConsumptionOverviewRecord> records) throws Exception {
+
         Connection conn = null;
         PreparedStatement statement = null;
         ResultSet result = null;
 
         try {
             conn = ConnectionFactory.getInstance().getConnection();
+            // months are counted back from today (30 days each), daily totals are grouped into them
             statement = conn.prepareStatement(
-                    "WITH month_use AS (\n" +
-                            "    SELECT item.id AS ids, SUM(move_item.amount) AS month_amount, FLOOR(ABS(DATEDIFF(NOW(), move.time))/30) AS months_back\n" +
-                            "\tFROM move_item JOIN move ON move_item.move_id = move.id JOIN item ON (move_item.item_id = item.id)\n" +
-                            "\tWHERE move_item.amount < 0 AND move.account_id <> 1\n" +
-                            "\tGROUP BY move_item.item_id, months_back\n" +
-                            "), \n" +
-                            "month_supply AS (\n" +
-                            "    SELECT item.id AS id, SUM(move_item.amount) AS month_amount, FLOOR(ABS(DATEDIFF(NOW(), move.time))/30) AS months_back\n" +
-                            "\tFROM move_item JOIN move ON move_item.move_id = move.id JOIN item ON (move_item.item_id = item.id)\n" +
-                            "\tWHERE move_item.amount > 0\n" +
-                            "\tGROUP BY move_item.item_id, months_back\n" +
-                            "), \n" +
-                            "month_trash AS (\n" +
-                            "    SELECT item.id AS id, SUM(move_item.amount) AS month_amount, FLOOR(ABS(DATEDIFF(NOW(), move.time))/30) AS months_back\n" +
-                            "\tFROM move_item JOIN move ON move_item.move_id = move.id JOIN item ON (move_item.item_id = item.id)\n" +
-                            "\tWHERE move.account_id = 1\n" +
-                            "\tGROUP BY move_item.item_id, months_back\n" +
-                            "),\n" +
-                            "last_month_use AS (\n" +
-                            "\tSELECT * FROM month_use WHERE months_back = 0\n" +
-                            "),\n" +
-                            "months_in_use AS (\n" +
-                            "\tSELECT month_supply.id, MAX(months_back) AS num\n" +
-                            "    FROM month_supply\n" +
-                            "    WHERE 1\n" +
-                            "    GROUP BY id\n" +
-                            "),\n" +
-                            "avg_month_use AS (\n" +
-                            "\tSELECT ids, SUM(month_amount) / (months_in_use.num + 1) AS avgmuse\n" +
-                            "    FROM month_use JOIN months_in_use ON ids = months_in_use.id\n" +
-                            "    WHERE 1\n" +
-                            "    GROUP BY month_use.ids    \n" +
-                            "),\n" +
-                            "avg_month_trash AS (\n" +
-                            "\tSELECT month_trash.id, SUM(month_amount) / (months_in_use.num + 1) AS avgmtrash\n" +
-                            "    FROM month_trash JOIN months_in_use ON month_trash.id = months_in_use.id\n" +
-                            "    WHERE 1\n" +
-                            "    GROUP BY month_trash.id\n" +
-                            ")\n" +
-                            "SELECT item.id, item.name, last_month_use.month_amount as last_month, avg_month_use.avgmuse as avg_month, avg_month_trash.avgmtrash AS avg_trash\n" +
-                            "FROM (((item LEFT OUTER JOIN last_month_use ON item.id = last_month_use.ids) LEFT OUTER JOIN avg_month_use ON avg_month_use.ids = item.id) LEFT OUTER JOIN avg_month_trash ON avg_month_trash.id = item.id)\n" +
-                            "WHERE 1"
+                    "SELECT item.id, item.name, rollup.last_month, " +
+                            "rollup.consumed / (rollup.months_in_use + 1) AS avg_month, " +
+                            "rollup.trashed / (rollup.months_in_use + 1) AS avg_trash " +
+                            "FROM item LEFT OUTER JOIN (" +
+                            "    SELECT item_id, " +
+                            "    SUM(IF(ABS(DATEDIFF(NOW(), day)) < 30, consumed, 0)) AS last_month, " +
+                            "    SUM(consumed) AS consumed, SUM(trashed) AS trashed, " +
+                            "    MAX(IF(supplied > 0, FLOOR(ABS(DATEDIFF(NOW(), day)) / 30), NULL)) AS months_in_use " +
+                            "    FROM consumption_daily GROUP BY item_id" +
+                            ") AS rollup ON rollup.item_id = item.id"
             );
-            result = statement.executeQuery();
+            try {
+                result = statement.executeQuery();
+            } catch (SQLException e) {
+                if (e.getErrorCode() != NO_SUCH_TABLE_ERROR) throw e;
+                // rollups not installed (sql/006-consumption-daily.sql) - compute from the history of moves
+                statement.close();
+                statement = null;
+                ConsumptionEngine.compute(conn, records);
+                return;
+            }
             while (result.next())
                 records.add(new ConsumptionOverviewRecord(
                         result.getInt("id"),
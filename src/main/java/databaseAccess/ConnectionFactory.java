@@ -1,20 +1,13 @@
 package databaseAccess;
 
-import databaseAccess.CustomExceptions.UserWarningException;
-
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Creates, manages and closes all connections to DB server.
- * Singleton. Connection pool.
- *
- * todo: connection pool is not used - current implementation uses max. 2 connections at time
+ * Singleton. Keeps one connection pool per DB role, pools survive user login / logout.
  */
 
 public class ConnectionFactory {
@@ -23,70 +16,87 @@ public class ConnectionFactory {
     private static final ConnectionFactory connectionFactory = new ConnectionFactory();
     public static ConnectionFactory getInstance() { return connectionFactory; }
 
+    // DB accounts used by the application
+    private enum DatabaseRole {
+        BASIC("basic-user", "CwJNF7zJciaxMY3v"),
+        ADMIN("admin-user", "scfAT4nHm5MKJu9D");
+
+        final String username;
+        final String password;
+
+        DatabaseRole(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+    }
+
     // (default) connection details
     private String databaseIp = "192.168.0.10";
     private String databasePort = "3306";
     private String databaseName = "zubardb";
-    private String databaseUsername;
-    private String databasePassword;
 
-    // connection pool
-    private List<Connection> connectionPool = new ArrayList<>();
-    private HashSet<Connection> usedConnections = new HashSet<>();
-    private static int MAX_POOL_SIZE = 10;
+    // connection pools (replaced whenever server details change)
+    private final EnumMap<DatabaseRole, ConnectionPool> connectionPools = new EnumMap<>(DatabaseRole.class);
+    // idle connections are evicted also when no connection is being returned
+    private static final long HOUSEKEEPING_INTERVAL_MILLIS = 60 * 1000;
+    private BackgroundScheduler.Job housekeepingJob;
+    private volatile DatabaseRole activeRole = DatabaseRole.BASIC;
+    // pool each borrowed connection has to be returned to
+    private final ConcurrentHashMap<Connection, ConnectionPool> connectionOwners = new ConcurrentHashMap<>();
+    private static final int MAX_POOL_SIZE = 10;
+    // connections kept open in idle pool of a role (no handshake on next login)
+    private static final int MIN_IDLE_CONNECTIONS = 1;
+    // server-side prepared statements cached per connection (keyed by SQL text) by the driver
+    private static final String CONNECTION_PROPERTIES =
+            "?useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048"
+            + "&rewriteBatchedStatements=true";
 
     /**
-     * @return connection from the pool or a new if the pool is empty
+     * @return connection from the pool of active role or a new if the pool is empty
      */
     Connection getConnection() throws SQLException {
-        Connection connection;
-        if (!connectionPool.isEmpty()) {
-            // use connection from the pool
-            connection = connectionPool.remove(connectionPool.size() - 1);
-            usedConnections.add(connection);
-            return connection;
-        }
-        // create a new connection
-        try {
-            connection = DriverManager.getConnection("jdbc:mysql://" + databaseIp + ":" + databasePort + "/"
-                    + databaseName, databaseUsername, databasePassword);
-        } catch (SQLException e) {
-            throw new UserWarningException("Server je nedostupný.");
-        }
-        usedConnections.add(connection);
-        connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
-        connection.setAutoCommit(true);
-
+        ConnectionPool pool = getConnectionPool(activeRole);
+        Connection connection = pool.borrow();
+        connectionOwners.put(connection, pool);
         return connection;
     }
 
     /**
-     * Adds the connection to the pool or closes the connection if the pool is full.
+     * Returns the connection to the pool it was borrowed from.
      * @param connection No longer needed connection.
      */
-    // todo: V aktualnej implementacii sa nepredpoklada vytvorenie viac ako 2 Connection za behu programu
-    // todo: Pri rozsirovani treba zabezpecit otvaranie a zatvaranie Connection ako 'rast dynamickeho pola'
     void releaseConnection(Connection connection) {
         if (connection == null) return;
-        usedConnections.remove(connection);
+        ConnectionPool pool = connectionOwners.remove(connection);
+        if (pool != null) {
+            pool.release(connection);
+        } else {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-        // pool disabled
-        try {
-            connection.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
+    private synchronized ConnectionPool getConnectionPool(DatabaseRole role) {
+        ConnectionPool pool = connectionPools.get(role);
+        if (pool == null) {
+            pool = new ConnectionPool("jdbc:mysql://" + databaseIp + ":" + databasePort + "/" + databaseName
+                    + CONNECTION_PROPERTIES, role.username, role.password, MAX_POOL_SIZE, MIN_IDLE_CONNECTIONS);
+            connectionPools.put(role, pool);
+            if (housekeepingJob == null) housekeepingJob = BackgroundScheduler.getInstance().schedule(
+                    "pool-housekeeping", HOUSEKEEPING_INTERVAL_MILLIS, HOUSEKEEPING_INTERVAL_MILLIS, false,
+                    this::evictIdleConnections);
         }
+        return pool;
+    }
 
-        // pool enabled
-//        if (connectionPool.size() < MAX_POOL_SIZE) {
-//            connectionPool.add(connection);
-//        } else {
-//            try {
-//                connection.close();
-//            } catch (SQLException e) {
-//                e.printStackTrace();
-//            }
-//        }
+    /**
+     * Closes idle connections which were not used for a long time.
+     */
+    public synchronized void evictIdleConnections() {
+        for (ConnectionPool pool : connectionPools.values()) pool.evictIdleConnections();
     }
 
     /**
@@ -107,59 +117,44 @@ public class ConnectionFactory {
     }
 
     /**
-     * Closes all connections.
+     * Closes all connections of all roles. Connections currently in use are closed on their release.
      */
-    private void closeAllConnections() {
-        Iterator<Connection> iterator;
-        Connection connection;
-        try {
-            iterator = usedConnections.iterator();
-            while (iterator.hasNext()) {
-                connection = iterator.next();
-                connection.close();
-                usedConnections.remove(connection);
-            }
-            iterator = connectionPool.iterator();
-            while (iterator.hasNext()) {
-                connection = iterator.next();
-                connection.close();
-                connectionPool.remove(connection);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    private synchronized void closeAllConnections() {
+        for (ConnectionPool pool : connectionPools.values()) pool.close();
+        connectionPools.clear();
     }
 
     /**
      * Setups connection with basic database privileges. (additional protection)
+     * Pool of the role is reused if already opened.
      * @return true if logged in.
      */
     public boolean setBasicUserConnectionDetails() {
-        closeAllConnections();
-        databaseUsername = "basic-user";
-        databasePassword = "CwJNF7zJciaxMY3v";
+        activeRole = DatabaseRole.BASIC;
         return hasValidConnectionDetails();
     }
 
     /**
      * Setups connection with admin database privileges.
+     * Pool of the role is reused if already opened.
      * @return true if logged in.
      */
     boolean setAdminUserConnectionDetails() {
-        closeAllConnections();
-        databaseUsername = "admin-user";
-        databasePassword = "scfAT4nHm5MKJu9D";
+        activeRole = DatabaseRole.ADMIN;
         return hasValidConnectionDetails();
     }
 
     /**
-     * Changes connection details.
+     * Changes connection details. All pools are closed as they point to the previous server.
      * @param ip IP address of the server.
      * @param port port of the server.
      */
     public boolean setConnectionDetails(String ip, String port) {
-        databaseIp = ip;
-        databasePort = port;
+        synchronized (this) {
+            closeAllConnections();
+            databaseIp = ip;
+            databasePort = port;
+        }
         return setBasicUserConnectionDetails();
     }
 
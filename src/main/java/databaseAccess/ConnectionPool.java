@@ -0,0 +1,211 @@
+package databaseAccess;
+
+import databaseAccess.CustomExceptions.UserWarningException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, thread-safe pool of connections to one DB account.
+ * Borrowing blocks (with timeout) when all connections are in use.
+ * Connections are validated on borrow, reset on return and closed after being idle for too long.
+ */
+
+class ConnectionPool {
+    // default session state every borrowed connection starts with
+    static final int DEFAULT_ISOLATION = Connection.TRANSACTION_READ_COMMITTED;
+
+    private static final long BORROW_TIMEOUT_MILLIS = 5000;
+    private static final long MAX_IDLE_MILLIS = 5 * 60 * 1000;
+    // connections used more recently than this are not pinged again on borrow
+    private static final long VALIDATION_INTERVAL_MILLIS = 1000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minIdle;
+
+    // one permit per connection that may exist (idle or borrowed)
+    private final Semaphore permits;
+    // idle connections, most recently used first
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final ConcurrentHashMap<Connection, PooledConnection> borrowedConnections = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    // physical connection + time of its last return to the pool
+    private static class PooledConnection {
+        final Connection connection;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    ConnectionPool(String url, String username, String password, int maxSize, int minIdle) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minIdle = minIdle;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * @return idle connection from the pool or a new one if none is idle.
+     * Waits for a returned connection if the pool is exhausted.
+     */
+    Connection borrow() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed.");
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                throw new UserWarningException("Server je zaneprázdnený, skúste to prosím znova.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection.", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idleConnections.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    borrowedConnections.put(pooled.connection, pooled);
+                    return pooled.connection;
+                }
+                closeQuietly(pooled.connection);
+            }
+
+            // no usable idle connection - create a new one
+            pooled = new PooledConnection(createConnection());
+            borrowedConnections.put(pooled.connection, pooled);
+            return pooled.connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns borrowed connection to the pool.
+     * Open transaction is rolled back and default session state is restored.
+     * @param connection No longer needed connection.
+     */
+    void release(Connection connection) {
+        PooledConnection pooled = borrowedConnections.remove(connection);
+        if (pooled == null) {
+            // not borrowed from this pool (e.g. pool was replaced meanwhile)
+            closeQuietly(connection);
+            return;
+        }
+
+        try {
+            if (closed || !resetSessionState(connection)) {
+                closeQuietly(connection);
+            } else {
+                pooled.lastUsed = System.currentTimeMillis();
+                idleConnections.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+        evictIdleConnections();
+    }
+
+    /**
+     * Closes connections idle for longer than allowed, keeps 'minIdle' connections open.
+     */
+    void evictIdleConnections() {
+        long threshold = System.currentTimeMillis() - MAX_IDLE_MILLIS;
+        PooledConnection oldest;
+        // the least recently used connections are at the end of the deque
+        while (idleConnections.size() > minIdle
+                && (oldest = idleConnections.peekLast()) != null && oldest.lastUsed < threshold) {
+            if (idleConnections.removeLastOccurrence(oldest)) closeQuietly(oldest.connection);
+        }
+    }
+
+    /**
+     * Closes all idle connections. Borrowed connections are closed on their return.
+     */
+    void close() {
+        closed = true;
+        Iterator<PooledConnection> iterator = idleConnections.iterator();
+        while (iterator.hasNext()) {
+            closeQuietly(iterator.next().connection);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return number of connections currently borrowed
+     */
+    int getBorrowedCount() {
+        return borrowedConnections.size();
+    }
+
+    /**
+     * @return number of connections currently waiting in the pool
+     */
+    int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    private Connection createConnection() throws SQLException {
+        Connection connection;
+        try {
+            connection = DriverManager.getConnection(url, username, password);
+        } catch (SQLException e) {
+            throw new UserWarningException("Server je nedostupný.");
+        }
+        connection.setTransactionIsolation(DEFAULT_ISOLATION);
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            if (pooled.connection.isClosed()) return false;
+            if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_INTERVAL_MILLIS) return true;
+            return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Ends unfinished transaction and restores default autocommit and isolation.
+     * @return false if the connection is broken and should be closed
+     */
+    private boolean resetSessionState(Connection connection) {
+        try {
+            if (connection.isClosed()) return false;
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (connection.getTransactionIsolation() != DEFAULT_ISOLATION)
+                connection.setTransactionIsolation(DEFAULT_ISOLATION);
+            connection.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package databaseAccess;
+
+import domain.ConsumptionOverviewRecord;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes consumption overview of all items in one pass over the history of moves.
+ * Moves are streamed from the server row by row, totals are kept in primitive arrays indexed by item ID,
+ * so the memory does not depend on the number of moves.
+ * Gives the same results as the consumption overview query (incl. rounding of averages to 4 decimals).
+ */
+
+class ConsumptionEngine {
+    private ConsumptionEngine() {}
+
+    // ID of the 'trash' account
+    private static final int TRASH_ACCOUNT = 1;
+    private static final int DAYS_IN_MONTH = 30;
+    // MySQL rounds result of decimal division to 4 decimals (div_precision_increment)
+    private static final long DIVISION_SCALE = 10000;
+
+    /**
+     * @param conn connection used exclusively by the engine until the method returns
+     * @param records list to store computed records in (ordered by item ID)
+     */
+    static void compute(Connection conn, List<ConsumptionOverviewRecord> records) throws SQLException {
+        // items and moves are read from one snapshot
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        conn.setReadOnly(true);
+        try {
+            String[] names = readItemNames(conn);
+            int size = names.length;
+            long[] lastMonth = new long[size];
+            long[] consumed = new long[size];
+            long[] trashed = new long[size];
+            int[] monthsInUse = new int[size];
+            Arrays.fill(monthsInUse, -1);
+
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "SELECT move_item.item_id, move_item.amount, move.account_id, DATEDIFF(NOW(), move.time) AS days " +
+                            "FROM move_item JOIN move ON move_item.move_id = move.id",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                // MySQL driver streams the result row by row only with this fetch size
+                statement.setFetchSize(Integer.MIN_VALUE);
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        int itemId = result.getInt(1);
+                        if (itemId <= 0 || itemId >= size || names[itemId] == null) continue;
+                        int amount = result.getInt(2);
+                        int accountId = result.getInt(3);
+                        int monthsBack = Math.abs(result.getInt(4)) / DAYS_IN_MONTH;
+
+                        if (amount > 0 && monthsBack > monthsInUse[itemId]) monthsInUse[itemId] = monthsBack;
+                        if (accountId == TRASH_ACCOUNT) {
+                            trashed[itemId] += amount;
+                        } else if (amount < 0) {
+                            consumed[itemId] += amount;
+                            if (monthsBack == 0) lastMonth[itemId] += amount;
+                        }
+                    }
+                }
+            }
+            conn.commit();
+
+            for (int itemId = 1; itemId < size; itemId++) {
+                if (names[itemId] == null) continue;
+                // items never supplied have no average (as in the query)
+                boolean supplied = monthsInUse[itemId] >= 0;
+                records.add(new ConsumptionOverviewRecord(
+                        itemId,
+                        names[itemId],
+                        lastMonth[itemId],
+                        supplied ? divide(consumed[itemId], monthsInUse[itemId] + 1) : 0,
+                        supplied ? divide(trashed[itemId], monthsInUse[itemId] + 1) : 0
+                ));
+            }
+        } finally {
+            conn.setReadOnly(false);
+        }
+    }
+
+    /**
+     * @return names of items indexed by their IDs (null for no item)
+     */
+    private static String[] readItemNames(Connection conn) throws SQLException {
+        int maxId = 0;
+        try (PreparedStatement statement = conn.prepareStatement("SELECT MAX(id) FROM item");
+             ResultSet result = statement.executeQuery()) {
+            if (result.next()) maxId = result.getInt(1);
+        }
+        String[] names = new String[maxId + 1];
+        try (PreparedStatement statement = conn.prepareStatement("SELECT id, name FROM item");
+             ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                int itemId = result.getInt(1);
+                if (itemId > 0 && itemId <= maxId) names[itemId] = result.getString(2);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Division rounded half away from zero to 4 decimals (the same way as MySQL divides decimals).
+     */
+    static double divide(long dividend, int divisor) {
+        long scaled = Math.abs(dividend) * DIVISION_SCALE;
+        long quotient = (2 * scaled + divisor) / (2L * divisor);
+        return (dividend < 0 ? -quotient : quotient) / (double) DIVISION_SCALE;
+    }
+
+}
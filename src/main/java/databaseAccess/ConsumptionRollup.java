@@ -0,0 +1,158 @@
+package databaseAccess;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Maintains daily per-item totals of moves (table consumption_daily) used by the consumption overview.
+ * supplied - positive amounts, consumed - negative amounts of accounts other than 'trash',
+ * trashed - amounts of 'trash' account (ID 1).
+ * Every change is performed in the transaction of the caller.
+ */
+
+class ConsumptionRollup {
+    private ConsumptionRollup() {}
+
+    // ID of the 'trash' account
+    private static final int TRASH_ACCOUNT = 1;
+    // daily totals of moves since the day (parameters: trash account, trash account, number of past days)
+    private static final String RECENT_HISTORY =
+            "SELECT move_item.item_id, DATE(move.time) AS day, " +
+                    "SUM(IF(move_item.amount > 0, move_item.amount, 0)) AS supplied, " +
+                    "SUM(IF(move_item.amount < 0 AND move.account_id <> ?, move_item.amount, 0)) AS consumed, " +
+                    "SUM(IF(move.account_id = ?, move_item.amount, 0)) AS trashed " +
+                    "FROM move JOIN move_item ON move_item.move_id = move.id " +
+                    "WHERE move.time >= CURDATE() - INTERVAL ? DAY " +
+                    "GROUP BY move_item.item_id, DATE(move.time)";
+
+    /**
+     * Adds amount of newly inserted move_item record(s) of the move to the totals of the day of the move.
+     */
+    static void add(Connection conn, int moveId, int itemId, int amount) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO consumption_daily (item_id, day, supplied, consumed, trashed) " +
+                        "SELECT ?, DATE(move.time), " +
+                        "IF(? > 0, ?, 0), IF(? < 0 AND move.account_id <> ?, ?, 0), IF(move.account_id = ?, ?, 0) " +
+                        "FROM move WHERE move.id = ? " +
+                        "ON DUPLICATE KEY UPDATE supplied = supplied + VALUES(supplied), " +
+                        "consumed = consumed + VALUES(consumed), trashed = trashed + VALUES(trashed)")) {
+            statement.setInt(1, itemId);
+            statement.setInt(2, amount);
+            statement.setInt(3, amount);
+            statement.setInt(4, amount);
+            statement.setInt(5, TRASH_ACCOUNT);
+            statement.setInt(6, amount);
+            statement.setInt(7, TRASH_ACCOUNT);
+            statement.setInt(8, amount);
+            statement.setInt(9, moveId);
+            if (statement.executeUpdate() < 1) throw new SQLException();
+        }
+    }
+
+    /**
+     * Moves totals of the account's moves to 'trash' totals (its moves are being taken over by 'trash').
+     * Must be called before the moves are reassigned.
+     */
+    static void reassignToTrash(Connection conn, int accountId) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(
+                "UPDATE consumption_daily JOIN (" +
+                        "SELECT move_item.item_id, DATE(move.time) AS day, " +
+                        "SUM(IF(move_item.amount < 0, move_item.amount, 0)) AS consumed, " +
+                        "SUM(move_item.amount) AS total " +
+                        "FROM move_item JOIN move ON move_item.move_id = move.id WHERE move.account_id = ? " +
+                        "GROUP BY move_item.item_id, day) AS moved " +
+                        "ON consumption_daily.item_id = moved.item_id AND consumption_daily.day = moved.day " +
+                        "SET consumption_daily.consumed = consumption_daily.consumed - moved.consumed, " +
+                        "consumption_daily.trashed = consumption_daily.trashed + moved.total")) {
+            statement.setInt(1, accountId);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Recalculates all totals from the history of moves.
+     */
+    static void rebuild(Connection conn) throws SQLException {
+        // lock all items first (the same lock order as supply / offtake) - no move is written meanwhile
+        try (PreparedStatement statement = conn.prepareStatement("SELECT id FROM item FOR UPDATE");
+             ResultSet result = statement.executeQuery()) {
+            while (result.next()) result.getInt(1);
+        }
+        try (PreparedStatement statement = conn.prepareStatement("DELETE FROM consumption_daily")) {
+            statement.executeUpdate();
+        }
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO consumption_daily (item_id, day, supplied, consumed, trashed) " +
+                        "SELECT move_item.item_id, DATE(move.time), " +
+                        "SUM(IF(move_item.amount > 0, move_item.amount, 0)), " +
+                        "SUM(IF(move_item.amount < 0 AND move.account_id <> ?, move_item.amount, 0)), " +
+                        "SUM(IF(move.account_id = ?, move_item.amount, 0)) " +
+                        "FROM move_item JOIN move ON move_item.move_id = move.id " +
+                        "GROUP BY move_item.item_id, DATE(move.time)")) {
+            statement.setInt(1, TRASH_ACCOUNT);
+            statement.setInt(2, TRASH_ACCOUNT);
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Recalculates totals of the last days of items whose totals differ from the history of moves
+     * (e.g. moves written by older clients which do not maintain the totals).
+     * Only the affected items are locked. Must run in READ COMMITTED transaction (reads moves committed
+     * after the lock is acquired).
+     * @param days number of past days checked besides today
+     * @return number of repaired items
+     */
+    static int repairRecent(Connection conn, int days) throws SQLException {
+        List<Integer> itemIds = new ArrayList<>();
+        try (PreparedStatement statement = conn.prepareStatement(
+                "SELECT DISTINCT history.item_id FROM (" + RECENT_HISTORY + ") AS history " +
+                        "LEFT JOIN consumption_daily ON consumption_daily.item_id = history.item_id " +
+                        "AND consumption_daily.day = history.day " +
+                        "WHERE consumption_daily.item_id IS NULL OR consumption_daily.supplied <> history.supplied " +
+                        "OR consumption_daily.consumed <> history.consumed " +
+                        "OR consumption_daily.trashed <> history.trashed ORDER BY history.item_id")) {
+            statement.setInt(1, TRASH_ACCOUNT);
+            statement.setInt(2, TRASH_ACCOUNT);
+            statement.setInt(3, days);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) itemIds.add(result.getInt(1));
+            }
+        }
+        if (itemIds.isEmpty()) return 0;
+
+        String placeholders = String.join(", ", Collections.nCopies(itemIds.size(), "?"));
+        // lock affected items (the same lock order as supply / offtake) - no move of them is written meanwhile
+        try (PreparedStatement statement = conn.prepareStatement(
+                "SELECT id FROM item WHERE id IN (" + placeholders + ") ORDER BY id FOR UPDATE")) {
+            for (int i = 0; i < itemIds.size(); i++) statement.setInt(i + 1, itemIds.get(i));
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) result.getInt(1);
+            }
+        }
+        try (PreparedStatement statement = conn.prepareStatement(
+                "DELETE FROM consumption_daily WHERE day >= CURDATE() - INTERVAL ? DAY " +
+                        "AND item_id IN (" + placeholders + ")")) {
+            statement.setInt(1, days);
+            for (int i = 0; i < itemIds.size(); i++) statement.setInt(i + 2, itemIds.get(i));
+            statement.executeUpdate();
+        }
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO consumption_daily (item_id, day, supplied, consumed, trashed) " +
+                        "SELECT item_id, day, supplied, consumed, trashed FROM (" + RECENT_HISTORY + ") AS history " +
+                        "WHERE item_id IN (" + placeholders + ")")) {
+            statement.setInt(1, TRASH_ACCOUNT);
+            statement.setInt(2, TRASH_ACCOUNT);
+            statement.setInt(3, days);
+            for (int i = 0; i < itemIds.size(); i++) statement.setInt(i + 4, itemIds.get(i));
+            statement.executeUpdate();
+        }
+        return itemIds.size();
+    }
+
+}
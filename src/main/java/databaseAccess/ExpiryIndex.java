@@ -0,0 +1,339 @@
+package databaseAccess;
+
+import domain.ExpiryDateWarningRecord;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Live stock lots ordered by expiration date.
+ * Answers "expiring within N days" queries without reading the DB, reports items whose lots cross
+ * one of the horizons (expired / 7 / 30 days) as the time goes by or as lots are supplied.
+ * Loaded from stock_lot table, updated by stock changes of this application and reloaded periodically
+ * or after ChangeFeed reports changed items (changes of other clients). Queries should be answered from the index
+ * only while it is current (see isCurrent), otherwise from stock_lot table.
+ * Singleton. Thread-safe.
+ */
+
+public class ExpiryIndex {
+    // singleton
+    private ExpiryIndex() {}
+    private static final ExpiryIndex expiryIndex = new ExpiryIndex();
+    public static ExpiryIndex getInstance() { return expiryIndex; }
+
+    private static final long DRAIN_INTERVAL_MILLIS = 60 * 1000;
+    private static final long RELOAD_INTERVAL_MILLIS = 15 * 60 * 1000;
+    // lots not confirmed by a reload or by ChangeFeed for this long are not current
+    private static final long MAX_UNCONFIRMED_MILLIS = 60 * 1000;
+
+    /**
+     * Time windows of expiry warnings. Lots with expiration date today are considered expired.
+     */
+    public enum Horizon {
+        EXPIRED(0, "Expirované"),
+        WEEK(7, "Do 7 dní"),
+        MONTH(30, "Do 30 dní");
+
+        private final int days;
+        private final String label;
+
+        Horizon(int days, String label) {
+            this.days = days;
+            this.label = label;
+        }
+
+        public int getDays() { return days; }
+
+        // last expiration date within the horizon
+        LocalDate limit(LocalDate today) { return today.plusDays(days); }
+
+        @Override
+        public String toString() { return label; }
+    }
+
+    // expiration -> (item ID -> quantity)
+    private final TreeMap<LocalDate, HashMap<Integer, Integer>> lots = new TreeMap<>();
+    private final HashMap<Integer, String> itemNames = new HashMap<>();
+    private boolean loaded = false;
+    // item changes reported by ChangeFeed or made by this application during a reload (generation counter)
+    private long changes = 0;
+    // value of changes before the query of the last reload, the lots are stale if it differs
+    private long loadedChanges = -1;
+    // lots are known to be current at this time (start of the reload or of the poll without item changes)
+    private long confirmedAt = 0;
+    private boolean reloading = false;
+    // one reload at a time (reload job, drain of stale lots, rebuild of stock lots)
+    private final Object reloadLock = new Object();
+    // lots expiring up to this date have already been reported (per horizon)
+    private final EnumMap<Horizon, LocalDate> frontiers = new EnumMap<>(Horizon.class);
+    // items with lots added behind the frontier since the last drain (per horizon)
+    private final EnumMap<Horizon, HashSet<Integer>> arrivals = new EnumMap<>(Horizon.class);
+
+    private final CopyOnWriteArrayList<Consumer<Map<Horizon, List<ExpiryDateWarningRecord>>>> listeners =
+            new CopyOnWriteArrayList<>();
+    private final List<BackgroundScheduler.Job> scheduledJobs = new ArrayList<>();
+
+    /**
+     * @param listener consumer of items which have newly crossed a horizon (called by background thread)
+     */
+    public void addListener(Consumer<Map<Horizon, List<ExpiryDateWarningRecord>>> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Map<Horizon, List<ExpiryDateWarningRecord>>> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts periodic reload and drain in background (after login).
+     */
+    public synchronized void start() {
+        if (!scheduledJobs.isEmpty()) return;
+        BackgroundScheduler scheduler = BackgroundScheduler.getInstance();
+        scheduledJobs.add(scheduler.schedule("expiry-index-reload", 0, RELOAD_INTERVAL_MILLIS, false, this::reload));
+        scheduledJobs.add(scheduler.schedule("expiry-index-drain", 0, DRAIN_INTERVAL_MILLIS, false,
+                this::drainAndNotify));
+    }
+
+    /**
+     * Stops background jobs and drops all lots (logout).
+     */
+    public synchronized void stop() {
+        for (BackgroundScheduler.Job job : scheduledJobs) job.cancel();
+        scheduledJobs.clear();
+        lots.clear();
+        itemNames.clear();
+        frontiers.clear();
+        arrivals.clear();
+        loaded = false;
+        loadedChanges = -1;
+        confirmedAt = 0;
+    }
+
+    /**
+     * Replaces all lots by the current content of stock_lot table.
+     * Changes reported or made during the reload leave the lots stale (reloaded again by the next drain).
+     */
+    public void reload() throws Exception {
+        if (!Login.getInstance().hasUser()) return;
+        synchronized (reloadLock) {
+            long reloadStart = System.currentTimeMillis();
+            long changesBefore;
+            synchronized (this) {
+                changesBefore = changes;
+                reloading = true;
+            }
+            try {
+                reloadUnlocked(reloadStart, changesBefore);
+            } finally {
+                synchronized (this) {
+                    reloading = false;
+                }
+            }
+        }
+    }
+
+    private void reloadUnlocked(long reloadStart, long changesBefore) throws Exception {
+        // without stock lots (sql/004-stock-lot.sql) the index stays unloaded, queries read the history of moves
+        if (!ItemDAO.isStockLotAvailable()) return;
+        TreeMap<LocalDate, HashMap<Integer, Integer>> newLots = new TreeMap<>();
+        HashMap<Integer, String> newNames = new HashMap<>();
+
+        Connection conn = ConnectionFactory.getInstance().getConnection();
+        try (PreparedStatement statement = conn.prepareStatement(
+                "SELECT stock_lot.item_id, item.name, stock_lot.expiration, stock_lot.quantity " +
+                        "FROM stock_lot JOIN item ON stock_lot.item_id = item.id WHERE stock_lot.quantity > 0");
+             ResultSet result = statement.executeQuery()) {
+            while (result.next()) {
+                int itemId = result.getInt("item_id");
+                newNames.put(itemId, result.getString("name"));
+                newLots.computeIfAbsent(result.getDate("expiration").toLocalDate(), key -> new HashMap<>())
+                        .put(itemId, result.getInt("quantity"));
+            }
+        } catch (SQLException e) {
+            if (ItemDAO.isStockLotMissing(e)) return;
+            throw e;
+        } finally {
+            ConnectionFactory.getInstance().releaseConnection(conn);
+        }
+
+        synchronized (this) {
+            if (!Login.getInstance().hasUser()) return; // logged out meanwhile
+            // lots supplied by other clients behind the frontier are reported by the next drain
+            for (Map.Entry<LocalDate, HashMap<Integer, Integer>> entry : newLots.entrySet()) {
+                HashMap<Integer, Integer> present = lots.get(entry.getKey());
+                for (Integer itemId : entry.getValue().keySet())
+                    if (present == null || !present.containsKey(itemId)) lotAdded(itemId, entry.getKey());
+            }
+            lots.clear();
+            lots.putAll(newLots);
+            itemNames.clear();
+            itemNames.putAll(newNames);
+            loadedChanges = changesBefore;
+            confirmedAt = Math.max(confirmedAt, reloadStart);
+            loaded = true;
+        }
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return true if the lots are loaded, no change has been reported since the reload and the lots have been
+     * confirmed by ChangeFeed recently (not confirmed without change log or while the feed is not polled)
+     */
+    public synchronized boolean isCurrent() {
+        return loaded && changes == loadedChanges
+                && System.currentTimeMillis() - confirmedAt <= MAX_UNCONFIRMED_MILLIS;
+    }
+
+    /**
+     * Marks the lots stale after ChangeFeed has reported changed items, they are reloaded by the next drain.
+     */
+    synchronized void changedElsewhere() {
+        changes++;
+    }
+
+    /**
+     * Confirms the lots current after ChangeFeed has reported no changed items.
+     * @param pollStart time before the poll query
+     */
+    synchronized void confirmUnchanged(long pollStart) {
+        if (changes == loadedChanges) confirmedAt = Math.max(confirmedAt, pollStart);
+    }
+
+    // change of this application may be missing in the lots being reloaded
+    private void changedLocally() {
+        if (reloading) changes++;
+    }
+
+    /**
+     * Applies stock change of one lot performed by this application (after commit).
+     * @param delta supplied (positive) or taken (negative) amount
+     */
+    synchronized void adjust(int itemId, String itemName, LocalDate expiration, int delta) {
+        if (delta == 0) return;
+        changedLocally();
+        if (!loaded) return;
+        HashMap<Integer, Integer> items = lots.computeIfAbsent(expiration, key -> new HashMap<>());
+        int quantity = items.getOrDefault(itemId, 0) + delta;
+        if (quantity > 0) {
+            if (!items.containsKey(itemId)) lotAdded(itemId, expiration);
+            items.put(itemId, quantity);
+            itemNames.put(itemId, itemName);
+        } else {
+            items.remove(itemId);
+            if (items.isEmpty()) lots.remove(expiration);
+        }
+    }
+
+    /**
+     * Updates name of the item (item details changed).
+     */
+    synchronized void rename(int itemId, String itemName) {
+        changedLocally();
+        itemNames.computeIfPresent(itemId, (key, name) -> itemName);
+    }
+
+    /**
+     * Removes all lots of deleted item.
+     */
+    synchronized void remove(int itemId) {
+        changedLocally();
+        if (itemNames.remove(itemId) == null) return;
+        lots.values().removeIf(items -> {
+            items.remove(itemId);
+            return items.isEmpty();
+        });
+    }
+
+    // lot added behind the frontier of a horizon would be skipped by the drain
+    private void lotAdded(int itemId, LocalDate expiration) {
+        for (Horizon horizon : Horizon.values()) {
+            LocalDate frontier = frontiers.get(horizon);
+            if (frontier != null && !expiration.isAfter(frontier))
+                arrivals.computeIfAbsent(horizon, key -> new HashSet<>()).add(itemId);
+        }
+    }
+
+    /**
+     * @return items with lots expiring within the horizon (amounts within the horizon), ordered by name
+     */
+    public synchronized List<ExpiryDateWarningRecord> getExpiring(Horizon horizon) {
+        return toRecords(null, horizon.limit(LocalDate.now()));
+    }
+
+    /**
+     * Moves frontiers of all horizons to the current date.
+     * @return items whose lots have crossed the horizon since the last drain (only non-empty horizons)
+     */
+    synchronized Map<Horizon, List<ExpiryDateWarningRecord>> drain() {
+        EnumMap<Horizon, List<ExpiryDateWarningRecord>> crossed = new EnumMap<>(Horizon.class);
+        if (!loaded) return crossed;
+        LocalDate today = LocalDate.now();
+
+        for (Horizon horizon : Horizon.values()) {
+            LocalDate limit = horizon.limit(today);
+            LocalDate frontier = frontiers.get(horizon);
+            NavigableMap<LocalDate, HashMap<Integer, Integer>> crossedLots = frontier == null ?
+                    lots.headMap(limit, true) :
+                    frontier.isBefore(limit) ? lots.subMap(frontier, false, limit, true) : new TreeMap<>();
+
+            HashSet<Integer> itemIds = new HashSet<>();
+            for (HashMap<Integer, Integer> items : crossedLots.values()) itemIds.addAll(items.keySet());
+            HashSet<Integer> arrived = arrivals.remove(horizon);
+            if (arrived != null) itemIds.addAll(arrived);
+            if (frontier == null || frontier.isBefore(limit)) frontiers.put(horizon, limit);
+
+            List<ExpiryDateWarningRecord> records = toRecords(itemIds, limit);
+            if (!records.isEmpty()) crossed.put(horizon, records);
+        }
+        return crossed;
+    }
+
+    private void drainAndNotify() throws Exception {
+        boolean stale;
+        synchronized (this) {
+            stale = loaded && changes != loadedChanges;
+        }
+        if (stale) reload();
+        Map<Horizon, List<ExpiryDateWarningRecord>> crossed = drain();
+        if (crossed.isEmpty()) return;
+        for (Consumer<Map<Horizon, List<ExpiryDateWarningRecord>>> listener : listeners) listener.accept(crossed);
+    }
+
+    /**
+     * @param itemIds reported items, null for all items
+     * @param limit last expiration date included
+     */
+    private List<ExpiryDateWarningRecord> toRecords(HashSet<Integer> itemIds, LocalDate limit) {
+        HashMap<Integer, Integer> amounts = new HashMap<>();
+        for (HashMap<Integer, Integer> items : lots.headMap(limit, true).values())
+            for (Map.Entry<Integer, Integer> item : items.entrySet())
+                if (itemIds == null || itemIds.contains(item.getKey()))
+                    amounts.merge(item.getKey(), item.getValue(), Integer::sum);
+
+        List<ExpiryDateWarningRecord> records = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> amount : amounts.entrySet())
+            records.add(new ExpiryDateWarningRecord(amount.getKey(), itemNames.get(amount.getKey()),
+                    amount.getValue()));
+        records.sort(Comparator.comparing(ExpiryDateWarningRecord::getName, String.CASE_INSENSITIVE_ORDER));
+        return records;
+    }
+
+}
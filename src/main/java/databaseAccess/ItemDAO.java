@@ -11,12 +11,22 @@ import javafx.collections.ObservableList;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Manages communication with DB related to Item.
- * Provides actual item list.
+ * Provides actual item list, published as an unmodifiable snapshot (readers do not lock).
  * Singleton.
  */
 
@@ -26,43 +36,165 @@ public class ItemDAO {
     private static final ItemDAO itemDAO = new ItemDAO();
     public static ItemDAO getInstance() { return itemDAO; }
 
-    // lastly retrieved list of items
-    private static ArrayList<Item> itemList = new ArrayList<>();
+    // lastly published list of items (unmodifiable), replaced by an unbuilt snapshot after every change
+    private static final AtomicReference<ItemListSnapshot> itemList =
+            new AtomicReference<>(new ItemListSnapshot(Collections.emptyList()));
+    // reload shared by concurrent callers of reloadItemList
+    private static final AtomicReference<CompletableFuture<Void>> runningReload = new AtomicReference<>();
+    // search index over the item list
+    private static final ItemSearchIndex searchIndex = new ItemSearchIndex();
+    // custom attributes of items, prefetched with the item list
+    private static final AttributeCache attributeCache = new AttributeCache();
+    // number of rows handed over at once while the search result is being read from the server
+    private static final int SEARCH_CHUNK_SIZE = 200;
+    // MySQL error code of unique index violation
+    private static final int DUPLICATE_KEY_ERROR = 1062;
+    // MySQL error codes of missing table / column (change tracking not installed on the server)
+    private static final int NO_SUCH_TABLE_ERROR = 1146;
+    private static final int UNKNOWN_COLUMN_ERROR = 1054;
+    // SQL state of a column missing in the result set
+    private static final String COLUMN_NOT_FOUND_STATE = "S0022";
+    // item.version exists (sql/003-item-version.sql), otherwise updates compare the original values
+    private static volatile boolean versionAvailable = true;
+    // stock_lot table exists (sql/004-stock-lot.sql), otherwise varieties are aggregated from move_item
+    private static volatile boolean stockLotAvailable = true;
+    // move_item.time exists (sql/010-move-item-time.sql), otherwise the item history is ordered by move.time
+    private static volatile boolean moveItemTimeAvailable = true;
+
+    // change tracking (see sql/002-item-change-tracking.sql)
+    // server time of the last synchronization, null if the item list has to be loaded completely
+    private static Timestamp lastSyncServerTime = null;
+    private static long lastFullReload = 0;
+    private static boolean changeTrackingAvailable = true;
+    // changes are read again this long back (transactions committed after the previous sync started)
+    private static final long SYNC_OVERLAP_MILLIS = 5000;
+    // whole item list is reloaded at least this often (repairs any missed change)
+    private static final long FULL_RELOAD_INTERVAL_MILLIS = 60 * 60 * 1000;
+    // items changed by other clients (reported by ChangeFeed) have not been read yet
+    private static volatile boolean changesPending = false;
 
     /**
-     * Reloads possessed list of Items.
+     * Reloads possessed list of Items and synchronizes the search index with it.
+     * Only items changed since the last reload are read if the server tracks changes.
      */
     public void reloadItemList() throws Exception {
-        reloadItemList("");
+        while (true) {
+            CompletableFuture<Void> running = runningReload.get();
+            if (running != null) {
+                // other thread is reloading - its result is shared
+                awaitReload(running);
+                return;
+            }
+            CompletableFuture<Void> created = new CompletableFuture<>();
+            if (!runningReload.compareAndSet(null, created)) continue;
+            try {
+                synchronized (ItemDAO.class) {
+                    reloadItemListUnlocked();
+                }
+                CategoryDAO.getInstance().reloadCatListIfNeeded(getItemList());
+                created.complete(null);
+                return;
+            } catch (Throwable e) {
+                created.completeExceptionally(e);
+                throw e;
+            } finally {
+                runningReload.compareAndSet(created, null);
+            }
+        }
+    }
+
+    private static void awaitReload(CompletableFuture<Void> running) throws Exception {
+        try {
+            running.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    private void reloadItemListUnlocked() throws Exception {
+        // changes reported from now on are read by the next reload
+        changesPending = false;
+        try {
+            synchronizeItems();
+        } catch (Exception e) {
+            changesPending = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Items have been changed by other client (ChangeFeed), they are read by the next reload.
+     */
+    static void changedElsewhere() {
+        changesPending = true;
+    }
+
+    /**
+     * No item has been changed by other clients since the time (ChangeFeed) - the cached items
+     * stay fresh without reload unless some reported change has not been read yet.
+     */
+    static void confirmUnchanged(long sinceMillis) {
+        if (!changesPending) searchIndex.confirmSync(sinceMillis);
+    }
+
+    private void synchronizeItems() throws Exception {
+        boolean fullReload = lastSyncServerTime == null || !changeTrackingAvailable || !searchIndex.isFresh()
+                || System.currentTimeMillis() - lastFullReload > FULL_RELOAD_INTERVAL_MILLIS;
+        if (!fullReload) fullReload = !reloadChangedItems();
+        if (fullReload) {
+            Timestamp syncTime = changeTrackingAvailable ? getServerTime() : null;
+            ArrayList<Item> newItemList = queryItems("", null, null);
+            searchIndex.synchronize(newItemList);
+            invalidateItemList();
+            prefetchAttributes(newItemList);
+            lastSyncServerTime = syncTime;
+            lastFullReload = System.currentTimeMillis();
+        }
     }
 
-    public void reloadItemList(String searchPattern) throws Exception {
+    /**
+     * Reads items changed and deleted since the last synchronization and merges them into the item list.
+     * @return false if the server does not track changes (full reload required)
+     */
+    private boolean reloadChangedItems() throws Exception {
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
 
         Connection conn = null;
         PreparedStatement statement = null;
         ResultSet result = null;
-        ArrayList<Item> newItemList = new ArrayList<>();
+        ArrayList<Item> changedItems = new ArrayList<>();
+        ArrayList<Integer> deletedIds = new ArrayList<>();
+        Timestamp syncTime;
+        long start = System.nanoTime();
         try {
             conn = ConnectionFactory.getInstance().getConnection();
-            assert conn != null;
-            String searchOption = "";
-            if (!searchPattern.equals("")) searchOption = " WHERE item.name LIKE '%" + searchPattern + "%'";
-            statement = conn.prepareStatement(
-                    "SELECT * FROM item" + searchOption + " ORDER BY name ASC");
+            Timestamp since = new Timestamp(lastSyncServerTime.getTime() - SYNC_OVERLAP_MILLIS);
+
+            // server time first - changes committed while reading are read again next time
+            statement = conn.prepareStatement("SELECT NOW(3)");
             result = statement.executeQuery();
-            while (result.next())
-                newItemList.add(new Item(
-                        result.getInt("id"),
-                        result.getString("name"),
-                        result.getString("barcode"),
-                        result.getInt("min_amount"),
-                        result.getInt("cur_amount"),
-                        result.getString("unit"),
-                        result.getString("note"),
-                        result.getInt("category")
-                ));
+            result.next();
+            syncTime = result.getTimestamp(1);
+            result.close();
+            statement.close();
+
+            statement = conn.prepareStatement("SELECT * FROM item WHERE updated_at >= ?");
+            statement.setTimestamp(1, since);
+            result = statement.executeQuery();
+            while (result.next()) changedItems.add(readItem(result));
+            result.close();
+            statement.close();
+
+            statement = conn.prepareStatement("SELECT item_id FROM item_tombstone WHERE deleted_at >= ?");
+            statement.setTimestamp(1, since);
+            result = statement.executeQuery();
+            while (result.next()) deletedIds.add(result.getInt(1));
         } catch (SQLException e) {
+            if (e.getErrorCode() == NO_SUCH_TABLE_ERROR || e.getErrorCode() == UNKNOWN_COLUMN_ERROR) {
+                changeTrackingAvailable = false;
+                return false;
+            }
             e.printStackTrace();
             throw new UserWarningException("Položky sa nepodarilo načítať.");
         } finally {
@@ -71,100 +203,420 @@ public class ItemDAO {
             if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
         }
 
-        itemList = newItemList;
-        CategoryDAO.getInstance().reloadCatList();
+        searchIndex.applyChanges(changedItems, deletedIds);
+        for (Item item : changedItems) attributeCache.invalidate(item.getId());
+        for (int id : deletedIds) attributeCache.invalidate(id);
+        if (!changedItems.isEmpty() || !deletedIds.isEmpty()) {
+            invalidateItemList();
+            // items changed by other clients
+            ReportCache.getInstance().invalidate(ReportCache.Report.EXPIRY, ReportCache.Report.LOW_STOCK,
+                    ReportCache.Report.CONSUMPTION);
+        }
+        lastSyncServerTime = syncTime;
+        QueryStatistics.getInstance().record("item-list-delta", start);
+        return true;
+    }
+
+    /**
+     * @return current time of the DB server (changes are tracked in server time)
+     */
+    private Timestamp getServerTime() throws Exception {
+        Connection conn = null;
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            conn = ConnectionFactory.getInstance().getConnection();
+            statement = conn.prepareStatement("SELECT NOW(3)");
+            result = statement.executeQuery();
+            result.next();
+            return result.getTimestamp(1);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new UserWarningException("Položky sa nepodarilo načítať.");
+        } finally {
+            if (result != null) result.close();
+            if (statement != null) statement.close();
+            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
+        }
     }
 
     /**
-     * @return current list of Items
+     * Retrieves items whose name or barcode contains the search pattern.
+     * Answered from the in-memory index if it is up to date, from the server otherwise.
+     * Both paths match the pattern anywhere in the name or barcode.
+     * @param searchPattern part of the name or barcode of the item, empty string for all items
+     * @return list of matching items ordered by name
      */
-    public ArrayList<Item> getItemList() {
-        return itemList;
+    public ArrayList<Item> searchItems(String searchPattern) throws Exception {
+        return searchItems(searchPattern, null, null);
     }
 
     /**
-     * Removes all cached records (e.g. on logoff).
+     * Retrieves items whose name or barcode contains the search pattern.
+     * @param searchPattern part of the name or barcode of the item, empty string for all items
+     * @param query handle used to cancel the search, may be null
+     * @param chunkConsumer receives parts of the result as soon as they are read, may be null
+     * @return list of matching items ordered by name
+     * @throws CancellationException if the search has been cancelled
      */
-    public static void dropItemList() {
-        itemList.clear();
+    public ArrayList<Item> searchItems(String searchPattern, SearchQuery query,
+                                       Consumer<List<Item>> chunkConsumer) throws Exception {
+        if (searchPattern == null) throw new IllegalArgumentException();
+        if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
+        if (!searchIndex.isFresh()) return queryItems(searchPattern, query, chunkConsumer);
+
+        long start = System.nanoTime();
+        ArrayList<Item> items = searchIndex.search(searchPattern);
+        QueryStatistics.getInstance().record("item-search-index", start);
+        if (query != null) query.checkCancelled();
+        if (chunkConsumer != null) chunkConsumer.accept(items);
+        return items;
     }
 
     /**
-     * Tries to create all required records in the database for item supply.
-     * @param itemId ID of the supplied item.
-     * @param supplyAmount amount of items supplied.
-     * @param expiration expiration date of the item supplied.
+     * Retrieves items whose name or barcode contains the search pattern from the server.
+     * Pattern is bound as a parameter, so the statement text is the same for every search
+     * and the driver reuses its cached prepared statement.
+     * Running statement is cancelled on the server when the query is cancelled.
+     * @param searchPattern part of the name or barcode of the item, empty string for all items
+     * @param query handle used to cancel the search, may be null
+     * @param chunkConsumer receives every SEARCH_CHUNK_SIZE read items, may be null
+     * @return list of matching items ordered by name
+     * @throws CancellationException if the search has been cancelled
      */
-    public void itemSupply(int itemId, int supplyAmount, LocalDate expiration) throws Exception {
-        if (itemId <= 0 || supplyAmount <= 0) throw new IllegalArgumentException();
+    private ArrayList<Item> queryItems(String searchPattern, SearchQuery query,
+                                       Consumer<List<Item>> chunkConsumer) throws Exception {
+        if (searchPattern == null) throw new IllegalArgumentException();
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
 
         Connection conn = null;
         PreparedStatement statement = null;
         ResultSet result = null;
-        Savepoint savepoint1 = null;
-        int curAmount;
-        int moveId;
-
+        ArrayList<Item> items = new ArrayList<>();
+        long start = System.nanoTime();
         try {
             conn = ConnectionFactory.getInstance().getConnection();
             assert conn != null;
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
-            // load current amount of items present
-            statement = conn.prepareStatement(
-                    "SELECT * FROM item WHERE id = ?");
-            statement.setInt(1, itemId);
-            result = statement.executeQuery();
-            if (result.next()) {
-                curAmount = result.getInt("cur_amount");
+            if (searchPattern.equals("")) {
+                statement = conn.prepareStatement("SELECT * FROM item ORDER BY name ASC");
             } else {
-                throw new UserWarningException("Neexistujúca položka.");
+                String likePattern = "%" + escapeLikePattern(searchPattern) + "%";
+                statement = conn.prepareStatement(
+                        "SELECT * FROM item WHERE name LIKE ? OR barcode LIKE ? ORDER BY name ASC");
+                statement.setString(1, likePattern);
+                statement.setString(2, likePattern);
             }
+            if (query != null) query.attach(statement);
+            result = statement.executeQuery();
+            int chunkStart = 0;
+            while (result.next()) {
+                items.add(readItem(result));
+                if (chunkConsumer != null && items.size() - chunkStart == SEARCH_CHUNK_SIZE) {
+                    if (query != null) query.checkCancelled();
+                    chunkConsumer.accept(new ArrayList<>(items.subList(chunkStart, items.size())));
+                    chunkStart = items.size();
+                }
+            }
+            if (query != null) query.checkCancelled();
+            if (chunkConsumer != null && chunkStart < items.size())
+                chunkConsumer.accept(new ArrayList<>(items.subList(chunkStart, items.size())));
+        } catch (SQLException e) {
+            if (query != null && query.isCancelled()) throw new CancellationException();
+            e.printStackTrace();
+            throw new UserWarningException("Položky sa nepodarilo načítať.");
+        } finally {
+            if (query != null) query.detach();
+            if (result != null) result.close();
+            if (statement != null) statement.close();
+            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
+        }
+        QueryStatistics.getInstance().record(searchPattern.equals("") ? "item-list" : "item-search", start);
+        return items;
+    }
 
-            // increment no. of items present
-            statement = conn.prepareStatement(
-                    "UPDATE item SET cur_amount = ? WHERE id = ?");
-            statement.setInt(1, curAmount + supplyAmount);
-            statement.setInt(2, itemId);
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            // create move record
-            statement = conn.prepareStatement(
-                    "INSERT INTO move SET account_id = ?, time = NOW()", Statement.RETURN_GENERATED_KEYS);
-            statement.setInt(1, Login.getInstance().getLoggedUserId());
-            if (statement.executeUpdate() != 1) throw new SQLException();
-            ResultSet rs = statement.getGeneratedKeys();
-            if (rs != null && rs.next()) {
-                moveId = rs.getInt(1);
-            } else {
-                throw new SQLException();
+    /**
+     * Finds item by its exact barcode (e.g. scanner input).
+     * Resolved from the in-memory index if possible, otherwise by the unique index on item.barcode.
+     * @param barcode scanned barcode
+     * @return item with the barcode, null if there is none
+     */
+    public Item findItemByBarcode(String barcode) throws Exception {
+        if (barcode == null) throw new IllegalArgumentException();
+        if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
+        String code = barcode.trim();
+        if (code.isEmpty()) return null;
+
+        long start = System.nanoTime();
+        boolean indexFresh = searchIndex.isFresh();
+        if (indexFresh) {
+            Item cached = searchIndex.findByBarcode(code);
+            if (cached != null) {
+                QueryStatistics.getInstance().record("item-barcode-index", start);
+                return cached;
             }
+        }
 
-            // link supplied items to move
-            statement = conn.prepareStatement(
-                    "INSERT INTO move_item SET move_id = ?, item_id = ?, amount = ?, expiration = ?");
-            statement.setInt(1, moveId);
-            statement.setInt(2, itemId);
-            statement.setInt(3, supplyAmount);
-            statement.setDate(4, java.sql.Date.valueOf(expiration));
-            if (statement.executeUpdate() != 1) throw new SQLException();
+        Connection conn = null;
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        Item item = null;
+        try {
+            conn = ConnectionFactory.getInstance().getConnection();
+            statement = conn.prepareStatement("SELECT * FROM item WHERE barcode = ?");
+            statement.setString(1, code);
+            result = statement.executeQuery();
+            if (result.next()) item = readItem(result);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new UserWarningException("Položku sa nepodarilo načítať.");
+        } finally {
+            if (result != null) result.close();
+            if (statement != null) statement.close();
+            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
+        }
+        // item created after the last reload
+        if (item != null && indexFresh) searchIndex.put(item);
+        QueryStatistics.getInstance().record("item-barcode", start);
+        return item;
+    }
 
-            conn.commit();
+    /**
+     * Escapes LIKE wildcards so user input is matched literally.
+     */
+    private static String escapeLikePattern(String pattern) {
+        return pattern.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
 
-        } catch (Exception e) {
-            assert conn != null;
-            conn.rollback(savepoint1);
-            throw e;
+    /**
+     * Items without barcode have NULL in DB (unique index allows multiple NULLs), empty string in the application.
+     */
+    private static String readBarcode(ResultSet result) throws SQLException {
+        String barcode = result.getString("barcode");
+        return barcode == null ? "" : barcode;
+    }
+
+    private static void bindBarcode(PreparedStatement statement, int parameterIndex, String barcode)
+            throws SQLException {
+        if (barcode == null || barcode.trim().isEmpty()) {
+            statement.setNull(parameterIndex, Types.VARCHAR);
+        } else {
+            statement.setString(parameterIndex, barcode.trim());
+        }
+    }
+
+    /**
+     * @return true if the exception was caused by duplicate value in an unique index (e.g. barcode)
+     */
+    private static boolean isDuplicateKey(Exception e) {
+        return e instanceof SQLException && ((SQLException) e).getErrorCode() == DUPLICATE_KEY_ERROR;
+    }
+
+    /**
+     * Creates Item from current row of the result set (all columns of table 'item' required).
+     */
+    static Item readItem(ResultSet result) throws SQLException {
+        return new Item(
+                result.getInt("id"),
+                result.getString("name"),
+                readBarcode(result),
+                result.getInt("min_amount"),
+                result.getInt("cur_amount"),
+                result.getString("unit"),
+                result.getString("note"),
+                result.getInt("category"),
+                readVersion(result)
+        );
+    }
+
+    /**
+     * @return version of item details, 0 if the server has no item.version column
+     */
+    private static int readVersion(ResultSet result) throws SQLException {
+        if (!versionAvailable) return 0;
+        try {
+            return result.getInt("version");
+        } catch (SQLException e) {
+            if (!COLUMN_NOT_FOUND_STATE.equals(e.getSQLState())) throw e;
+            versionAvailable = false;
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the item inside of the running transaction (state including changes made by the transaction).
+     */
+    private static Item readItem(Connection conn, int itemId) throws SQLException {
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            statement = conn.prepareStatement("SELECT * FROM item WHERE id = ?");
+            statement.setInt(1, itemId);
+            result = statement.executeQuery();
+            if (!result.next()) throw new SQLException("Item " + itemId + " not found.");
+            return readItem(result);
+        } finally {
+            if (result != null) result.close();
+            if (statement != null) statement.close();
+        }
+    }
+
+    private static boolean itemExists(Connection conn, int itemId) throws SQLException {
+        PreparedStatement statement = null;
+        ResultSet result = null;
+        try {
+            statement = conn.prepareStatement("SELECT id FROM item WHERE id = ?");
+            statement.setInt(1, itemId);
+            result = statement.executeQuery();
+            return result.next();
         } finally {
             if (result != null) result.close();
             if (statement != null) statement.close();
-            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
         }
     }
 
+    /**
+     * Writes changed item through to the cached item list and search index.
+     */
+    private static void cacheItem(Item item) {
+        searchIndex.put(item);
+        ExpiryIndex.getInstance().rename(item.getId(), item.getName());
+        invalidateItemList();
+    }
+
+    /**
+     * Removes deleted item from the cached item list and search index.
+     */
+    private static void uncacheItem(int itemId) {
+        searchIndex.remove(itemId);
+        ExpiryIndex.getInstance().remove(itemId);
+        invalidateItemList();
+    }
+
+    /**
+     * Published item list, items == null until the list is rebuilt from the search index.
+     */
+    private static class ItemListSnapshot {
+        final List<Item> items;
+
+        ItemListSnapshot(List<Item> items) {
+            this.items = items;
+        }
+    }
+
+    // the list is rebuilt by the next reader
+    private static void invalidateItemList() {
+        itemList.set(new ItemListSnapshot(null));
+    }
+
+    /**
+     * @return current unmodifiable list of Items (including changes written by this application since
+     * the last reload)
+     */
+    public List<Item> getItemList() {
+        ItemListSnapshot current = itemList.get();
+        if (current.items != null) return current.items;
+        List<Item> rebuilt = Collections.unmodifiableList(searchIndex.search(""));
+        // not published if items have changed meanwhile (the next reader rebuilds the list again)
+        itemList.compareAndSet(current, new ItemListSnapshot(rebuilt));
+        return rebuilt;
+    }
+
+    /**
+     * @return number of low stock items (current amount not above minimal amount), -1 if items are not loaded
+     */
+    public int getLowStockCount() {
+        return searchIndex.isLoaded() ? searchIndex.lowStockCount() : -1;
+    }
+
+    /**
+     * @return cached low stock items ordered by name, null if the cache is not fresh
+     */
+    ArrayList<Item> getCachedLowStockItems() {
+        return searchIndex.isFresh() ? searchIndex.lowStockItems() : null;
+    }
+
+    /**
+     * Removes all cached records (e.g. on logoff).
+     */
+    public static synchronized void dropItemList() {
+        itemList.set(new ItemListSnapshot(Collections.emptyList()));
+        searchIndex.clear();
+        attributeCache.clear();
+        ReportCache.getInstance().clear();
+        lastSyncServerTime = null;
+        changeTrackingAvailable = true;
+        versionAvailable = true;
+        stockLotAvailable = true;
+        moveItemTimeAvailable = true;
+    }
+
+    /**
+     * @return false if the server has been found not to have the stock_lot table
+     */
+    static boolean isStockLotAvailable() {
+        return stockLotAvailable;
+    }
+
+    /**
+     * Marks the stock_lot table missing if the exception was caused by it.
+     * @return true if stock_lot table is missing
+     */
+    static boolean isStockLotMissing(SQLException e) {
+        if (e.getErrorCode() != NO_SUCH_TABLE_ERROR) return false;
+        stockLotAvailable = false;
+        return true;
+    }
+
+    /**
+     * Tries to create all required records in the database for item supply.
+     * @param itemId ID of the supplied item.
+     * @param supplyAmount amount of items supplied.
+     * @param expiration expiration date of the item supplied.
+     * @return the item after the supply
+     */
+    public Item itemSupply(int itemId, int supplyAmount, LocalDate expiration) throws Exception {
+        if (itemId <= 0 || supplyAmount <= 0) throw new IllegalArgumentException();
+        if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
+
+        Item updatedItem = TransactionRunner.getInstance().run("item-supply", Connection.TRANSACTION_READ_COMMITTED,
+                itemId, conn -> {
+            // increment no. of items present (atomic, locks the item row until commit)
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "UPDATE item SET cur_amount = cur_amount + ? WHERE id = ?")) {
+                statement.setInt(1, supplyAmount);
+                statement.setInt(2, itemId);
+                if (statement.executeUpdate() != 1) throw new UserWarningException("Neexistujúca položka.");
+            }
+
+            // create move record, link supplied items to it
+            int moveId = insertMove(conn, Login.getInstance().getLoggedUserId());
+            insertMoveItems(conn, moveId, itemId, Collections.singletonMap(expiration, supplyAmount));
+
+            // add supplied amount to the stock lot
+            if (stockLotAvailable) {
+                try (PreparedStatement statement = conn.prepareStatement(
+                        "INSERT INTO stock_lot (item_id, expiration, quantity) VALUES (?, ?, ?) " +
+                                "ON DUPLICATE KEY UPDATE quantity = quantity + VALUES(quantity)")) {
+                    statement.setInt(1, itemId);
+                    statement.setDate(2, java.sql.Date.valueOf(expiration));
+                    statement.setInt(3, supplyAmount);
+                    statement.executeUpdate();
+                } catch (SQLException e) {
+                    // failed statement does not abort the transaction, the move is recorded anyway
+                    if (!isStockLotMissing(e)) throw e;
+                }
+            }
+
+            // state of the item after the change
+            return readItem(conn, itemId);
+        });
+        cacheItem(updatedItem);
+        ExpiryIndex.getInstance().adjust(itemId, updatedItem.getName(), expiration, supplyAmount);
+        ReportCache.getInstance().invalidate(ReportCache.Report.EXPIRY, ReportCache.Report.LOW_STOCK,
+                ReportCache.Report.CONSUMPTION);
+        return updatedItem;
+    }
+
     /**
      * Retrieves all custom attributes of item with 'itemId'.
      * @param itemId ID of the supplied item.
@@ -174,10 +626,14 @@ public class ItemDAO {
         if (itemId <= 0) throw new IllegalArgumentException();
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
 
+        HashSet<CustomAttribute> cached = attributeCache.get(itemId);
+        if (cached != null) return cached;
+
         Connection conn = null;
         PreparedStatement statement = null;
         ResultSet result = null;
         HashSet<CustomAttribute> customAttributes = new HashSet<>();
+        long generation = attributeCache.getGeneration();
 
         // read attributes from DB
         try {
@@ -199,7 +655,46 @@ public class ItemDAO {
             if (statement != null) statement.close();
             if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
         }
-        return customAttributes;
+        attributeCache.put(itemId, customAttributes, generation);
+        return new HashSet<>(customAttributes);
+    }
+
+    /**
+     * @return cached custom attributes of the item (no DB request), null if they are not cached
+     */
+    public HashSet<CustomAttribute> getCachedItemCustomAttributes(int itemId) {
+        return attributeCache.get(itemId);
+    }
+
+    /**
+     * Loads custom attributes of all items in one query (failure only leaves the cache empty).
+     * @param items all items
+     */
+    private static void prefetchAttributes(List<Item> items) {
+        long generation = attributeCache.getGeneration();
+        HashMap<Integer, ArrayList<CustomAttribute>> itemAttributes = new HashMap<>();
+        long start = System.nanoTime();
+
+        Connection conn = null;
+        try {
+            conn = ConnectionFactory.getInstance().getConnection();
+            try (PreparedStatement statement = conn.prepareStatement("SELECT item_id, name, content FROM attribute");
+                 ResultSet result = statement.executeQuery()) {
+                while (result.next())
+                    itemAttributes.computeIfAbsent(result.getInt("item_id"), key -> new ArrayList<>())
+                            .add(new CustomAttribute(result.getString("name"), result.getString("content")));
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
+        }
+
+        ArrayList<Integer> itemIds = new ArrayList<>(items.size());
+        for (Item item : items) itemIds.add(item.getId());
+        attributeCache.putAll(itemIds, itemAttributes, generation);
+        QueryStatistics.getInstance().record("attribute-prefetch", start);
     }
 
     /**
@@ -208,98 +703,136 @@ public class ItemDAO {
      * @param newBasicValues new compulsory values for the item
      * @param attributesToAdd new custom attributes (to be inserted)
      * @param attributesToDelete custom attributes to be deleted
+     * @return the item after the update
      */
-    public void itemUpdate(Item originalItem, HashMap<String, String> newBasicValues,
+    public Item itemUpdate(Item originalItem, HashMap<String, String> newBasicValues,
                               HashSet<CustomAttribute> attributesToAdd, HashSet<CustomAttribute> attributesToDelete)
             throws Exception {
         if (originalItem == null || newBasicValues == null || attributesToAdd == null || attributesToDelete == null)
             throw new IllegalArgumentException();
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        Savepoint savepoint1 = null;
-        ResultSet result = null;
-
+        Item updatedItem;
         try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setAutoCommit(false);
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
-            //check whether the item exists and was not changed concurrently
-            statement = conn.prepareStatement(
-                    "SELECT * FROM item WHERE id = ?");
-            statement.setInt(1, originalItem.getId());
-            result = statement.executeQuery();
-            if (!result.next()) throw new UserWarningException("Položka, ktorú sa snažíte aktualizovať, neexistuje.");
-            if (!result.getString("name").equals(originalItem.getName())
-                    || !result.getString("barcode").equals(originalItem.getBarcode())
-                    || result.getInt("min_amount") != originalItem.getMinAmount()
-                    || !result.getString("unit").equals(originalItem.getUnit())
-                    || result.getInt("category") != originalItem.getCategory()
-                ) throw new ConcurrentModificationException();
-
-            // update basic info about the item
-            statement = conn.prepareStatement(
-                    "UPDATE item SET name = ?, barcode = ?, min_amount = ?, unit = ?, category = ? WHERE id = ?");
-            statement.setString(1,
-                    newBasicValues.containsKey("name") ? newBasicValues.get("name") : originalItem.getName());
-            statement.setString(2,
-                    newBasicValues.containsKey("barcode") ? newBasicValues.get("barcode") : originalItem.getBarcode());
-            statement.setInt(3,
-                    newBasicValues.containsKey("min_amount") ?
-                            Integer.parseInt(newBasicValues.get("min_amount")) : originalItem.getMinAmount());
-            statement.setString(4,
-                        newBasicValues.containsKey("unit") ? newBasicValues.get("unit") : originalItem.getUnit());
-            statement.setInt(5,
-                    newBasicValues.containsKey("category") ?
-                            Integer.parseInt(newBasicValues.get("category")) : originalItem.getCategory());
-            statement.setInt(6, originalItem.getId());
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            // create custom attributes records
-            for (CustomAttribute newAttribute : attributesToAdd) {
-                statement = conn.prepareStatement(
-                        "INSERT INTO attribute SET item_id = ?, name = ?, content = ?");
-                statement.setInt(1, originalItem.getId());
-                statement.setString(2, newAttribute.getName());
-                statement.setString(3, newAttribute.getValue());
-                if (statement.executeUpdate() != 1) throw new ConcurrentModificationException();
-            }
-
-            // remove custom attributes records
-            for (CustomAttribute newAttribute : attributesToDelete) {
-                statement = conn.prepareStatement(
-                        "DELETE FROM attribute WHERE item_id = ? AND name = ? AND content = ?");
-                statement.setInt(1, originalItem.getId());
-                statement.setString(2, newAttribute.getName());
-                statement.setString(3, newAttribute.getValue());
-                if (statement.executeUpdate() != 1) throw new ConcurrentModificationException();
-            }
+            updatedItem = TransactionRunner.getInstance().run("item-update", Connection.TRANSACTION_READ_COMMITTED,
+                    originalItem.getId(), conn -> {
+                // update basic info about the item if it was not changed concurrently (optimistic version check,
+                // without item.version the original values are compared)
+                // stock changes do not change the version - they do not conflict with the update
+                boolean versioned = versionAvailable;
+                try (PreparedStatement statement = conn.prepareStatement(versioned ?
+                        "UPDATE item SET name = ?, barcode = ?, min_amount = ?, unit = ?, category = ?, " +
+                                "version = version + 1 WHERE id = ? AND version = ?" :
+                        "UPDATE item SET name = ?, barcode = ?, min_amount = ?, unit = ?, category = ? " +
+                                "WHERE id = ? AND name <=> ? AND COALESCE(barcode, '') = ? AND min_amount = ? " +
+                                "AND unit <=> ? AND category = ?")) {
+                    statement.setString(1,
+                            newBasicValues.containsKey("name") ? newBasicValues.get("name") : originalItem.getName());
+                    bindBarcode(statement, 2, newBasicValues.containsKey("barcode") ?
+                            newBasicValues.get("barcode") : originalItem.getBarcode());
+                    statement.setInt(3,
+                            newBasicValues.containsKey("min_amount") ?
+                                    Integer.parseInt(newBasicValues.get("min_amount")) : originalItem.getMinAmount());
+                    statement.setString(4,
+                            newBasicValues.containsKey("unit") ? newBasicValues.get("unit") : originalItem.getUnit());
+                    statement.setInt(5,
+                            newBasicValues.containsKey("category") ?
+                                    Integer.parseInt(newBasicValues.get("category")) : originalItem.getCategory());
+                    statement.setInt(6, originalItem.getId());
+                    if (versioned) {
+                        statement.setInt(7, originalItem.getVersion());
+                    } else {
+                        statement.setString(7, originalItem.getName());
+                        statement.setString(8, originalItem.getBarcode());
+                        statement.setInt(9, originalItem.getMinAmount());
+                        statement.setString(10, originalItem.getUnit());
+                        statement.setInt(11, originalItem.getCategory());
+                    }
+                    if (statement.executeUpdate() != 1) {
+                        if (itemExists(conn, originalItem.getId())) throw new ConcurrentModificationException();
+                        throw new UserWarningException("Položka, ktorú sa snažíte aktualizovať, neexistuje.");
+                    }
+                }
 
-            conn.commit();
+                // create custom attributes records
+                insertAttributes(conn, originalItem.getId(), attributesToAdd);
+
+                // remove custom attributes records
+                if (!attributesToDelete.isEmpty()) {
+                    try (PreparedStatement statement = conn.prepareStatement(
+                            "DELETE FROM attribute WHERE item_id = ? AND name = ? AND content = ?")) {
+                        for (CustomAttribute newAttribute : attributesToDelete) {
+                            statement.setInt(1, originalItem.getId());
+                            statement.setString(2, newAttribute.getName());
+                            statement.setString(3, newAttribute.getValue());
+                            statement.addBatch();
+                        }
+                        if (!allRowsAffected(statement.executeBatch())) throw new ConcurrentModificationException();
+                    }
+                }
 
-        } catch (Exception e) {
-            assert conn != null;
-            conn.rollback(savepoint1);
+                // state of the item after the change
+                return readItem(conn, originalItem.getId());
+            });
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) throw new UserWarningException("Položka s rovnakým kódom už existuje.");
             throw e;
-        } finally {
-            if (statement != null) statement.close();
-            if (result != null) result.close();
-            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
         }
+        cacheItem(updatedItem);
+        attributeCache.invalidate(updatedItem.getId());
+        // name and minimal amount are displayed / evaluated by all reports
+        ReportCache.getInstance().invalidate(ReportCache.Report.EXPIRY, ReportCache.Report.LOW_STOCK,
+                ReportCache.Report.CONSUMPTION);
+        return updatedItem;
     }
 
     /**
-     * Retrieves transaction log for specified item.
+     * Retrieves one page of transaction log for specified item (newest first).
+     * Following page is located by the position of the last record (keyset pagination). Records are ordered
+     * by the time of the move copied into move_item, so every page is one range read of the index
+     * move_item (item_id, time, move_id, expiration) whatever the size of the history
+     * (ordered by move.time if the server has no move_item.time).
      * @param itemId ID of the requested Item log
+     * @param from first day of the log (inclusive), null for no limit
+     * @param to last day of the log (inclusive), null for no limit
+     * @param after last record of the previous page, null for the first page
+     * @param limit maximal number of records
      * @return list of log records
      */
-    public ArrayList<ItemMoveLogRecord> getItemTransactions(int itemId) throws Exception {
-        if (itemId <= 0) throw new IllegalArgumentException();
+    public ArrayList<ItemMoveLogRecord> getItemTransactions(int itemId, LocalDate from, LocalDate to,
+                                                            ItemMoveLogRecord after, int limit) throws Exception {
+        if (itemId <= 0 || limit <= 0) throw new IllegalArgumentException();
         if (!Login.getInstance().hasAdmin()) throw new UserWarningException("Prihláste sa prosím.");
 
+        boolean copiedTime = moveItemTimeAvailable;
+        try {
+            return queryItemTransactions(copiedTime, itemId, from, to, after, limit);
+        } catch (SQLException e) {
+            if (!copiedTime || e.getErrorCode() != UNKNOWN_COLUMN_ERROR) throw e;
+            moveItemTimeAvailable = false;
+            return queryItemTransactions(false, itemId, from, to, after, limit);
+        }
+    }
+
+    /**
+     * @param copiedTime true to order by move_item.time, false by move.time (sql/010-move-item-time.sql missing)
+     */
+    private ArrayList<ItemMoveLogRecord> queryItemTransactions(boolean copiedTime, int itemId, LocalDate from,
+            LocalDate to, ItemMoveLogRecord after, int limit) throws Exception {
+        String time = copiedTime ? "move_item.time" : "move.time";
+        StringBuilder query = new StringBuilder(
+                "SELECT account.name, account.surname, move_item.amount, move_item.move_id, " + time + " AS time, " +
+                        "move_item.expiration " +
+                        "FROM (move_item JOIN move ON (move_item.move_id = move.id)) " +
+                        "JOIN account ON (move.account_id = account.id) WHERE move_item.item_id = ?");
+        if (from != null) query.append(" AND ").append(time).append(" >= ?");
+        if (to != null) query.append(" AND ").append(time).append(" < ?");
+        // one move contains at most one record of each variety of the item -> expiration completes the key
+        if (after != null) query.append(" AND (").append(time).append(" < ? OR (").append(time)
+                .append(" = ? AND (move_item.move_id < ? OR (move_item.move_id = ? AND move_item.expiration < ?))))");
+        query.append(" ORDER BY ").append(time)
+                .append(" DESC, move_item.move_id DESC, move_item.expiration DESC LIMIT ?");
+
         Connection conn = null;
         PreparedStatement statement = null;
         ResultSet result = null;
@@ -307,24 +840,36 @@ public class ItemDAO {
 
         try {
             conn = ConnectionFactory.getInstance().getConnection();
-            statement = conn.prepareStatement(
-                    "SELECT account.name, account.surname, move_item.amount, move.time, move_item.expiration " +
-                            "FROM (move_item JOIN move ON (move_item.move_id = move.id)) " +
-                            "JOIN account ON (move.account_id = account.id) WHERE move_item.item_id = ? " +
-                            "ORDER BY move.time DESC");
-            statement.setInt(1, itemId);
+            statement = conn.prepareStatement(query.toString());
+            int index = 1;
+            statement.setInt(index++, itemId);
+            if (from != null) statement.setTimestamp(index++, Timestamp.valueOf(from.atStartOfDay()));
+            if (to != null) statement.setTimestamp(index++, Timestamp.valueOf(to.plusDays(1).atStartOfDay()));
+            if (after != null) {
+                statement.setTimestamp(index++, Timestamp.valueOf(after.getTime()));
+                statement.setTimestamp(index++, Timestamp.valueOf(after.getTime()));
+                statement.setInt(index++, after.getMoveId());
+                statement.setInt(index++, after.getMoveId());
+                statement.setDate(index++, java.sql.Date.valueOf(after.getExpirationDate()));
+            }
+            statement.setInt(index, limit);
             result = statement.executeQuery();
             while (result.next())
                 logRecords.add(new ItemMoveLogRecord(
-                        result.getDate("time").toString(),
-                        ((Integer)result.getInt("amount")).toString(),
+                        result.getTimestamp("time").toLocalDateTime(),
+                        result.getInt("move_id"),
+                        result.getInt("amount"),
                         result.getString("name") + " " + result.getString("surname"),
-                        result.getDate("expiration").toString()
+                        result.getDate("expiration").toLocalDate()
                 ));
         } finally {
-            if (result != null) result.close();
-            if (statement != null) statement.close();
-            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
+            try {
+                if (result != null) result.close();
+                if (statement != null) statement.close();
+                if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
         }
         return logRecords;
     }
@@ -345,15 +890,31 @@ public class ItemDAO {
         try {
             conn = ConnectionFactory.getInstance().getConnection();
 
-            statement = conn.prepareStatement(
-                    "SELECT SUM(amount) AS sum, expiration " +
-                            "FROM `move_item` WHERE item_id = ? GROUP BY expiration HAVING sum > 0");
-            statement.setInt(1, itemId);
-            result = statement.executeQuery();
+            // live stock lots of the item (maintained by supply / offtake, no aggregation of the history)
+            if (stockLotAvailable) {
+                statement = conn.prepareStatement(
+                        "SELECT expiration, quantity FROM stock_lot WHERE item_id = ? AND quantity > 0");
+                statement.setInt(1, itemId);
+                try {
+                    result = statement.executeQuery();
+                } catch (SQLException e) {
+                    if (!isStockLotMissing(e)) throw e;
+                    statement.close();
+                    statement = null;
+                }
+            }
+            if (result == null) {
+                // stock lots not installed (sql/004-stock-lot.sql) - aggregated from the history of moves
+                statement = conn.prepareStatement(
+                        "SELECT expiration, SUM(amount) AS quantity " +
+                                "FROM move_item WHERE item_id = ? GROUP BY expiration HAVING quantity > 0");
+                statement.setInt(1, itemId);
+                result = statement.executeQuery();
+            }
             while (result.next())
                 records.add(new ItemOfftakeRecord(
                         result.getDate("expiration").toLocalDate(),
-                        result.getInt("sum")
+                        result.getInt("quantity")
                 ));
 
         } catch (Exception e) {
@@ -366,184 +927,217 @@ public class ItemDAO {
         }
     }
 
+    /**
+     * Recalculates all stock lots from the history of moves (repairs stock_lot after manual changes in DB).
+     */
+    public void rebuildStockLots() throws Exception {
+        if (!Login.getInstance().hasAdmin()) throw new UserWarningException("Nemáte dostatočné oprávnenia.");
+
+        try {
+            rebuildStockLotsUnchecked();
+        } catch (SQLException e) {
+            if (isStockLotMissing(e))
+                throw new UserWarningException("Server nemá tabuľku zásob (sql/004-stock-lot.sql).");
+            throw e;
+        }
+        stockLotAvailable = true;
+        ReportCache.getInstance().invalidate(ReportCache.Report.EXPIRY);
+        if (ExpiryIndex.getInstance().isLoaded()) ExpiryIndex.getInstance().reload();
+    }
+
+    private void rebuildStockLotsUnchecked() throws Exception {
+        TransactionRunner.getInstance().run("stock-lot-rebuild", Connection.TRANSACTION_READ_COMMITTED,
+                TransactionRunner.NO_ITEM, conn -> {
+            // lock all items first (the same lock order as supply / offtake) - no stock change meanwhile
+            try (PreparedStatement statement = conn.prepareStatement("SELECT id FROM item FOR UPDATE");
+                 ResultSet result = statement.executeQuery()) {
+                while (result.next()) result.getInt(1);
+            }
+            try (PreparedStatement statement = conn.prepareStatement("DELETE FROM stock_lot")) {
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "INSERT INTO stock_lot (item_id, expiration, quantity) " +
+                            "SELECT item_id, expiration, SUM(amount) FROM move_item " +
+                            "GROUP BY item_id, expiration HAVING SUM(amount) > 0")) {
+                statement.executeUpdate();
+            }
+            return null;
+        });
+    }
+
     /**
      * Tries to 'trash' stated Items (= take off as 'trash user'.)
      * @param item item to be taken
      * @param requestList  list of desired varieties (different expiry dates) of item
+     * @return the item after the offtake
      */
-    public void itemTrash (Item item, ObservableList<ItemOfftakeRecord> requestList) throws Exception {
-        itemOfftake(item, requestList, true);
+    public Item itemTrash (Item item, ObservableList<ItemOfftakeRecord> requestList) throws Exception {
+        return itemOfftake(item, requestList, true);
     }
 
     /**
      * Tries to 'take off' stated Items in name of loggedIn user.
      * @param item item to be taken
      * @param requestList list of desired varieties (different expiry dates) of item
+     * @return the item after the offtake
      */
-    public void itemOfftake (Item item, ObservableList<ItemOfftakeRecord> requestList) throws Exception {
-        itemOfftake(item, requestList, false);
+    public Item itemOfftake (Item item, ObservableList<ItemOfftakeRecord> requestList) throws Exception {
+        return itemOfftake(item, requestList, false);
     }
 
-    private void itemOfftake (Item item, ObservableList<ItemOfftakeRecord> requestList, boolean isTrash)
+    private Item itemOfftake (Item item, ObservableList<ItemOfftakeRecord> requestList, boolean isTrash)
             throws Exception {
         if (item == null || requestList == null) throw new IllegalArgumentException();
         if (!Login.getInstance().hasUser()) throw new UserWarningException("Prihláste sa prosím.");
         if (isTrash && !Login.getInstance().hasAdmin()) throw new UserWarningException("Nemáte dostatočné oprávnenia.");
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        Savepoint savepoint1 = null;
-
-        try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
-            conn.setAutoCommit(false);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
-            // load current amount of items present
-            statement = conn.prepareStatement(
-                    "SELECT * FROM item WHERE id = ?");
-            statement.setInt(1, item.getId());
-
-            int curAmount;
-            result = statement.executeQuery();
-            if (result.next()) {
-                curAmount = result.getInt("cur_amount");
-            } else {
-                throw new SQLException();
-            }
-
-            // load present varieties - prevent concurrent offtake
-            HashMap<LocalDate, Integer> currentRecords = new HashMap<>();
-            statement = conn.prepareStatement(
-                    "SELECT SUM(amount) AS sum, expiration " +
-                            "FROM `move_item` WHERE item_id = ? GROUP BY expiration HAVING sum > 0");
-            statement.setInt(1, item.getId());
-            result = statement.executeQuery();
-            while (result.next())
-                currentRecords.put(
-                        result.getDate("expiration").toLocalDate(),
-                        result.getInt("sum")
-                );
-
-            // check whether all of requested takeoffs can be fulfilled
-            int noOfRequestedItems = 0;
-            for (ItemOfftakeRecord request : requestList) {
-                if (!currentRecords.containsKey(request.getExpiration())
-                        || currentRecords.get(request.getExpiration()) < Integer.parseInt(request.getRequestedAmount())) {
-                    // a request cannot be fulfilled -> fail
+        // requested amounts of varieties, total requested amount
+        LinkedHashMap<LocalDate, Integer> requested = new LinkedHashMap<>();
+        int totalRequested = 0;
+        for (ItemOfftakeRecord request : requestList) {
+            int requestedAmount = Integer.parseInt(request.getRequestedAmount());
+            if (requestedAmount < 0) throw new IllegalArgumentException();
+            if (requestedAmount == 0) continue;
+            requested.merge(request.getExpiration(), requestedAmount, Integer::sum);
+            totalRequested += requestedAmount;
+        }
+        int noOfRequestedItems = totalRequested;
+
+        Item updatedItem = TransactionRunner.getInstance().run(isTrash ? "item-trash" : "item-offtake",
+                Connection.TRANSACTION_READ_COMMITTED, item.getId(), conn -> {
+            // decrement no. of items present (atomic, locks the item row until commit)
+            // every stock change of the item starts with this lock -> offtakes of the item are serialized,
+            // offtakes of other items are not blocked (also lock order item -> stock_lot, no deadlocks)
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "UPDATE item SET cur_amount = cur_amount - ? WHERE id = ? AND cur_amount >= ?")) {
+                statement.setInt(1, noOfRequestedItems);
+                statement.setInt(2, item.getId());
+                statement.setInt(3, noOfRequestedItems);
+                if (statement.executeUpdate() != 1)
                     throw new UserWarningException("Požadovaná kombinácia (už) nie je dostupná.");
-                }
-                noOfRequestedItems += Integer.parseInt(request.getRequestedAmount());
             }
 
-            // ALL REQUESTS CAN BE FULFILLED
-            // decrement no. of items present
-            statement = conn.prepareStatement(
-                    "UPDATE item SET cur_amount = ? WHERE id = ?");
-            statement.setInt(1, curAmount - noOfRequestedItems);
-            statement.setInt(2, item.getId());
-            if (statement.executeUpdate() != 1) throw new SQLException();
+            // take requested amounts from stock lots, fails if any lot does not contain enough
+            if (!stockLotAvailable || !takeFromStockLots(conn, item.getId(), requested))
+                checkVarietiesFromMoves(conn, item.getId(), requested);
+
+            // create move record, link taken varieties to it
+            int moveId = insertMove(conn, isTrash ? 1 : Login.getInstance().getLoggedUserId());
+            LinkedHashMap<LocalDate, Integer> taken = new LinkedHashMap<>();
+            for (Map.Entry<LocalDate, Integer> lot : requested.entrySet()) taken.put(lot.getKey(), -lot.getValue());
+            insertMoveItems(conn, moveId, item.getId(), taken);
+
+            // state of the item after the change
+            return readItem(conn, item.getId());
+        });
+        cacheItem(updatedItem);
+        for (Map.Entry<LocalDate, Integer> lot : requested.entrySet())
+            ExpiryIndex.getInstance().adjust(item.getId(), updatedItem.getName(), lot.getKey(), -lot.getValue());
+        ReportCache.getInstance().invalidate(ReportCache.Report.EXPIRY, ReportCache.Report.LOW_STOCK,
+                ReportCache.Report.CONSUMPTION);
+        return updatedItem;
+    }
 
-            // create move record
-            int moveId;
-            statement = conn.prepareStatement(
-                    "INSERT INTO move SET account_id = ?, time = ?", Statement.RETURN_GENERATED_KEYS);
-            statement.setInt(1, isTrash ? 1 : Login.getInstance().getLoggedUserId());
-            statement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
-            if (statement.executeUpdate() != 1) throw new SQLException();
-            ResultSet rs = statement.getGeneratedKeys();
-            if (rs != null && rs.next()) {
-                moveId = rs.getInt(1);
-            } else {
-                throw new SQLException();
+    /**
+     * Takes requested amounts from stock lots of the item (item row has to be locked by the transaction).
+     * @return false if the server has no stock_lot table
+     * @throws UserWarningException if any lot does not contain enough
+     */
+    private static boolean takeFromStockLots(Connection conn, int itemId, Map<LocalDate, Integer> requested)
+            throws Exception {
+        try (PreparedStatement statement = conn.prepareStatement(
+                "UPDATE stock_lot SET quantity = quantity - ? " +
+                        "WHERE item_id = ? AND expiration = ? AND quantity >= ?")) {
+            for (Map.Entry<LocalDate, Integer> lot : requested.entrySet()) {
+                statement.setInt(1, lot.getValue());
+                statement.setInt(2, itemId);
+                statement.setDate(3, java.sql.Date.valueOf(lot.getKey()));
+                statement.setInt(4, lot.getValue());
+                statement.addBatch();
             }
+            if (!allRowsAffected(statement.executeBatch()))
+                throw new UserWarningException("Požadovaná kombinácia (už) nie je dostupná.");
+        } catch (SQLException e) {
+            if (isStockLotMissing(e)) return false;
+            throw e;
+        }
+        try (PreparedStatement statement = conn.prepareStatement(
+                "DELETE FROM stock_lot WHERE item_id = ? AND quantity <= 0")) {
+            statement.setInt(1, itemId);
+            statement.executeUpdate();
+        }
+        return true;
+    }
 
-            // create move_item records, link them to move record
-            for (ItemOfftakeRecord request : requestList) {
-                if (Integer.parseInt(request.getRequestedAmount()) <= 0) continue;
-                statement = conn.prepareStatement(
-                        "INSERT INTO move_item SET move_id = ?, item_id = ?, amount = ?, expiration = ?");
-                statement.setInt(1, moveId);
-                statement.setInt(2, item.getId());
-                statement.setInt(3, -Integer.parseInt(request.getRequestedAmount()));
-                statement.setDate(4, java.sql.Date.valueOf(request.getExpiration()));
-                if (statement.executeUpdate() != 1) throw new SQLException();
+    /**
+     * Verifies requested amounts against varieties aggregated from the history of moves
+     * (stock lots not installed, item row has to be locked by the transaction).
+     * @throws UserWarningException if any variety does not contain enough
+     */
+    private static void checkVarietiesFromMoves(Connection conn, int itemId, Map<LocalDate, Integer> requested)
+            throws Exception {
+        HashMap<LocalDate, Integer> available = new HashMap<>();
+        try (PreparedStatement statement = conn.prepareStatement(
+                "SELECT expiration, SUM(amount) AS quantity FROM move_item WHERE item_id = ? GROUP BY expiration")) {
+            statement.setInt(1, itemId);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next())
+                    available.put(result.getDate("expiration").toLocalDate(), result.getInt("quantity"));
             }
-
-            conn.commit();
-
-        } catch (Exception e) {
-            assert conn != null;
-            conn.rollback(savepoint1);
-            throw e;
-        } finally {
-            if (result != null) result.close();
-            if (statement != null) statement.close();
-            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
         }
+        for (Map.Entry<LocalDate, Integer> lot : requested.entrySet())
+            if (available.getOrDefault(lot.getKey(), 0) < lot.getValue())
+                throw new UserWarningException("Požadovaná kombinácia (už) nie je dostupná.");
     }
 
     /**
      * Inserts new item with custom attributes.
      * @param newItem item to be inserted
      * @param attributesToAdd new custom attributes
+     * @return the inserted item
      */
-    public void itemInsert(Item newItem, HashSet<CustomAttribute> attributesToAdd) throws Exception {
+    public Item itemInsert(Item newItem, HashSet<CustomAttribute> attributesToAdd) throws Exception {
         if (!Login.getInstance().hasAdmin()) throw new UserWarningException("Prihláste sa prosím.");
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        ResultSet result = null;
-        Savepoint savepoint1 = null;
-
+        Item updatedItem;
         try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            conn.setAutoCommit(false);
-            savepoint1 = conn.setSavepoint("Savepoint1");
-
-            // insert basic info about the item
-            statement = conn.prepareStatement(
-                    "INSERT INTO item SET name = ?, barcode = ?, min_amount = ?, unit = ?, category = ?",
-                    Statement.RETURN_GENERATED_KEYS);
-            statement.setString(1, newItem.getName());
-            statement.setString(2, newItem.getBarcode());
-            statement.setInt(3, newItem.getMinAmount());
-            statement.setString(4, newItem.getUnit());
-            statement.setInt(5, newItem.getCategory());
-            if (statement.executeUpdate() != 1) throw new SQLException();
-
-            // get ID of the new Item
-            int itemId;
-            result = statement.getGeneratedKeys();
-            if (result != null && result.next()) {
-                itemId = result.getInt(1);
-            } else {
-                throw new SQLException();
-            }
-
-            // create custom attributes records
-            for (CustomAttribute newAttribute : attributesToAdd) {
-                statement = conn.prepareStatement(
-                        "INSERT INTO attribute SET item_id = ?, name = ?, content = ?");
-                statement.setInt(1, itemId);
-                statement.setString(2, newAttribute.getName());
-                statement.setString(3, newAttribute.getValue());
-                if (statement.executeUpdate() != 1) throw new SQLException();
-            }
+            updatedItem = TransactionRunner.getInstance().run("item-insert", Connection.TRANSACTION_READ_COMMITTED,
+                    TransactionRunner.NO_ITEM, conn -> {
+                // insert basic info about the item
+                int itemId;
+                try (PreparedStatement statement = conn.prepareStatement(
+                        "INSERT INTO item SET name = ?, barcode = ?, min_amount = ?, unit = ?, category = ?",
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    statement.setString(1, newItem.getName());
+                    bindBarcode(statement, 2, newItem.getBarcode());
+                    statement.setInt(3, newItem.getMinAmount());
+                    statement.setString(4, newItem.getUnit());
+                    statement.setInt(5, newItem.getCategory());
+                    if (statement.executeUpdate() != 1) throw new SQLException();
+
+                    // get ID of the new Item
+                    try (ResultSet result = statement.getGeneratedKeys()) {
+                        if (result == null || !result.next()) throw new SQLException();
+                        itemId = result.getInt(1);
+                    }
+                }
 
-            conn.commit();
+                // create custom attributes records
+                insertAttributes(conn, itemId, attributesToAdd);
 
-        } catch (Exception e) {
-            assert conn != null;
-            conn.rollback(savepoint1);
+                // state of the item after the change
+                return readItem(conn, itemId);
+            });
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) throw new UserWarningException("Položka s rovnakým kódom už existuje.");
             throw e;
-        } finally {
-            if (result != null) result.close();
-            if (statement != null) statement.close();
-            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
         }
+        cacheItem(updatedItem);
+        attributeCache.invalidate(updatedItem.getId());
+        // new item has no stock yet (low stock, zero consumption)
+        ReportCache.getInstance().invalidate(ReportCache.Report.LOW_STOCK, ReportCache.Report.CONSUMPTION);
+        return updatedItem;
     }
 
     /**
@@ -554,25 +1148,108 @@ public class ItemDAO {
         if (item == null) throw new IllegalArgumentException();
         if (!Login.getInstance().hasAdmin()) throw new UserWarningException("Prihláste sa prosím.");
 
-        Connection conn = null;
-        PreparedStatement statement = null;
-        Savepoint savepoint1 = null;
+        TransactionRunner.getInstance().run("item-delete", Connection.TRANSACTION_READ_COMMITTED, item.getId(),
+                conn -> {
+            try (PreparedStatement statement = conn.prepareStatement("DELETE FROM item WHERE id = ?")) {
+                statement.setInt(1, item.getId());
+                if (statement.executeUpdate() != 1) throw new SQLException();
+            }
+            return null;
+        });
+        uncacheItem(item.getId());
+        attributeCache.invalidate(item.getId());
+        ReportCache.getInstance().invalidate(ReportCache.Report.EXPIRY, ReportCache.Report.LOW_STOCK,
+                ReportCache.Report.CONSUMPTION);
+    }
 
+    /**
+     * Inserts move record (header of a stock change) of the account.
+     * @return ID of the new move
+     */
+    private static int insertMove(Connection conn, int accountId) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO move SET account_id = ?, time = NOW()", Statement.RETURN_GENERATED_KEYS)) {
+            statement.setInt(1, accountId);
+            if (statement.executeUpdate() != 1) throw new SQLException();
+            try (ResultSet result = statement.getGeneratedKeys()) {
+                if (result == null || !result.next()) throw new SQLException();
+                return result.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Inserts move_item records (changes of amounts of varieties of the item) in one batch,
+     * adds them to consumption totals.
+     * @param amounts expiration -> amount (positive for supply, negative for offtake)
+     */
+    private static void insertMoveItems(Connection conn, int moveId, int itemId, Map<LocalDate, Integer> amounts)
+            throws SQLException {
+        if (amounts.isEmpty()) return;
+        int total = 0;
+        for (int amount : amounts.values()) total += amount;
+        boolean copiedTime = moveItemTimeAvailable;
         try {
-            conn = ConnectionFactory.getInstance().getConnection();
-            savepoint1 = conn.setSavepoint("Savepoint1");
+            insertMoveItemBatch(conn, moveId, itemId, amounts, copiedTime);
+        } catch (SQLException e) {
+            // failed statement does not abort the transaction, nothing has been inserted
+            if (!copiedTime || e.getErrorCode() != UNKNOWN_COLUMN_ERROR) throw e;
+            moveItemTimeAvailable = false;
+            insertMoveItemBatch(conn, moveId, itemId, amounts, false);
+        }
+        // all amounts of one move have the same sign, day and account
+        ConsumptionRollup.add(conn, moveId, itemId, total);
+    }
 
-            statement = conn.prepareStatement("DELETE FROM item WHERE id = ?");
-            statement.setInt(1, item. getId());
-            if (statement.executeUpdate() != 1) throw new SQLException();
-        } catch (Exception e) {
-            assert conn != null;
-            conn.rollback(savepoint1);
-            throw e;
-        } finally {
-            if (statement != null) statement.close();
-            if (conn != null) ConnectionFactory.getInstance().releaseConnection(conn);
+    /**
+     * @param copiedTime true to copy the time of the move (sql/010-move-item-time.sql)
+     */
+    private static void insertMoveItemBatch(Connection conn, int moveId, int itemId, Map<LocalDate, Integer> amounts,
+                                            boolean copiedTime) throws SQLException {
+        // VALUES form - the driver rewrites the batch into one multi-row insert;
+        // time of the move is copied for ordering of the item history (see getItemTransactions)
+        try (PreparedStatement statement = conn.prepareStatement(copiedTime ?
+                "INSERT INTO move_item (move_id, item_id, amount, expiration, time) " +
+                        "VALUES (?, ?, ?, ?, (SELECT move.time FROM move WHERE move.id = ?))" :
+                "INSERT INTO move_item (move_id, item_id, amount, expiration) VALUES (?, ?, ?, ?)")) {
+            for (Map.Entry<LocalDate, Integer> variety : amounts.entrySet()) {
+                statement.setInt(1, moveId);
+                statement.setInt(2, itemId);
+                statement.setInt(3, variety.getValue());
+                statement.setDate(4, java.sql.Date.valueOf(variety.getKey()));
+                if (copiedTime) statement.setInt(5, moveId);
+                statement.addBatch();
+            }
+            if (!allRowsAffected(statement.executeBatch())) throw new SQLException();
+        }
+    }
+
+    /**
+     * Inserts custom attribute records of the item in one batch.
+     */
+    private static void insertAttributes(Connection conn, int itemId, Collection<CustomAttribute> attributes)
+            throws SQLException {
+        if (attributes.isEmpty()) return;
+        try (PreparedStatement statement = conn.prepareStatement(
+                "INSERT INTO attribute (item_id, name, content) VALUES (?, ?, ?)")) {
+            for (CustomAttribute attribute : attributes) {
+                statement.setInt(1, itemId);
+                statement.setString(2, attribute.getName());
+                statement.setString(3, attribute.getValue());
+                statement.addBatch();
+            }
+            if (!allRowsAffected(statement.executeBatch())) throw new SQLException();
         }
     }
 
+    /**
+     * @param counts update counts of executed batch
+     * @return true if every statement of the batch has affected one row
+     * (rewritten multi-row inserts report no per-row counts)
+     */
+    private static boolean allRowsAffected(int[] counts) {
+        for (int count : counts) if (count != 1 && count != Statement.SUCCESS_NO_INFO) return false;
+        return true;
+    }
+
 }
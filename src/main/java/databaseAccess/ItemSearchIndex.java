@@ -0,0 +1,425 @@
+package databaseAccess;
+
+import domain.Item;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory search index over the cached item list.
+ * Trigram index answers substring queries of 3+ characters, shorter patterns are matched by a scan of
+ * all names and barcodes. Every pattern matches anywhere in the name or barcode like the server search
+ * (LIKE '%pattern%'), matching ignores case and diacritics like the DB collation.
+ * Hash map of barcodes resolves exact barcode (scanner input) in constant time.
+ * Set of low stock items (current amount not above minimal amount) is kept up to date with the items.
+ * Thread-safe, updated incrementally as items change.
+ */
+
+class ItemSearchIndex {
+    // index older than this is not trusted, search goes to the server
+    private static final long MAX_AGE_MILLIS = 10 * 60 * 1000;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final HashMap<Integer, IndexedItem> items = new HashMap<>();
+    private final HashMap<Long, PostingList> trigrams = new HashMap<>();
+    // exact barcode -> item ID
+    private final HashMap<String, Integer> barcodes = new HashMap<>();
+    // IDs of items with cur_amount <= min_amount
+    private final HashSet<Integer> lowStock = new HashSet<>();
+    // all items ordered by name, search results are ordered by ranks (positions) in this array
+    private IndexedItem[] orderedItems = new IndexedItem[0];
+    private boolean orderDirty = false;
+    private volatile long lastSync = 0;
+
+    // item + its normalized searchable texts
+    private static class IndexedItem {
+        final Item item;
+        final String name;
+        final String barcode;
+        // ordering key (normalized name, original name as tie breaker)
+        final String sortKey;
+        // position in the list of all items ordered by sortKey, -1 if not known yet
+        int rank = -1;
+
+        IndexedItem(Item item) {
+            this.item = item;
+            this.name = normalize(item.getName());
+            this.barcode = normalize(item.getBarcode());
+            this.sortKey = name + '\u0000' + item.getName();
+        }
+
+        boolean hasSameText(Item other) {
+            return item.getName().equals(other.getName()) && item.getBarcode().equals(other.getBarcode());
+        }
+    }
+
+    private static final Comparator<IndexedItem> BY_NAME = (a, b) -> a.sortKey.compareTo(b.sortKey);
+
+    /**
+     * Replaces indexed items with the freshly loaded list. Only changed items are re-indexed.
+     * @param newItems complete list of items
+     */
+    void synchronize(Collection<Item> newItems) {
+        lock.writeLock().lock();
+        try {
+            HashSet<Integer> presentIds = new HashSet<>();
+            for (Item item : newItems) {
+                presentIds.add(item.getId());
+                putUnlocked(item);
+            }
+            items.keySet().removeIf(id -> {
+                if (presentIds.contains(id)) return false;
+                unindex(id, items.get(id));
+                lowStock.remove(id);
+                orderDirty = true;
+                return true;
+            });
+            lastSync = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies changes read from DB since the last synchronization.
+     * @param changedItems new and modified items
+     * @param deletedIds IDs of deleted items
+     */
+    void applyChanges(Collection<Item> changedItems, Collection<Integer> deletedIds) {
+        lock.writeLock().lock();
+        try {
+            for (Item item : changedItems) putUnlocked(item);
+            for (int id : deletedIds) {
+                IndexedItem removed = items.remove(id);
+                lowStock.remove(id);
+                if (removed != null) {
+                    unindex(id, removed);
+                    orderDirty = true;
+                }
+            }
+            lastSync = System.currentTimeMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds new or updates changed item.
+     */
+    void put(Item item) {
+        lock.writeLock().lock();
+        try {
+            putUnlocked(item);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the item from the index.
+     */
+    void remove(int itemId) {
+        lock.writeLock().lock();
+        try {
+            IndexedItem removed = items.remove(itemId);
+            lowStock.remove(itemId);
+            if (removed != null) {
+                unindex(itemId, removed);
+                orderDirty = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all items (e.g. on logoff).
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            items.clear();
+            trigrams.clear();
+            barcodes.clear();
+            lowStock.clear();
+            orderedItems = new IndexedItem[0];
+            orderDirty = false;
+            lastSync = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the index has been synchronized with DB since the last clear
+     */
+    boolean isLoaded() {
+        return lastSync > 0;
+    }
+
+    /**
+     * @return true if the index was synchronized with DB recently enough to answer searches
+     */
+    boolean isFresh() {
+        return lastSync > 0 && System.currentTimeMillis() - lastSync < MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Marks loaded index as synchronized - no item has changed in DB since the last synchronization.
+     * @param syncTime time at which DB was known to contain no other changes
+     */
+    void confirmSync(long syncTime) {
+        lock.writeLock().lock();
+        try {
+            if (lastSync > 0 && syncTime > lastSync) lastSync = syncTime;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Pattern matches anywhere in the name or barcode (as SQL LIKE '%pattern%' of the server search).
+     * Patterns of 3+ characters are looked up in the trigram index, shorter ones scan all items.
+     * @param pattern searched text
+     * @return matching items ordered by name
+     */
+    ArrayList<Item> search(String pattern) {
+        String normalized = normalize(pattern);
+        if (orderDirty) {
+            lock.writeLock().lock();
+            try {
+                if (orderDirty) rebuildOrder();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        lock.readLock().lock();
+        try {
+            List<IndexedItem> found = new ArrayList<>();
+            if (normalized.isEmpty()) {
+                found.addAll(items.values());
+            } else if (normalized.length() < 3) {
+                for (IndexedItem indexed : items.values())
+                    if (indexed.name.contains(normalized) || indexed.barcode.contains(normalized)) found.add(indexed);
+            } else {
+                PostingList candidates = trigramCandidates(normalized);
+                if (candidates != null) collect(candidates, found,
+                        indexed -> indexed.name.contains(normalized) || indexed.barcode.contains(normalized));
+            }
+            return toOrderedItems(found);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Orders found items by name, using precomputed ranks if they are up to date.
+     */
+    private ArrayList<Item> toOrderedItems(List<IndexedItem> found) {
+        ArrayList<Item> result = new ArrayList<>(found.size());
+        if (orderDirty) {
+            // modified concurrently after the order was rebuilt
+            found.sort(BY_NAME);
+            for (IndexedItem indexed : found) result.add(indexed.item);
+            return result;
+        }
+        int[] ranks = new int[found.size()];
+        for (int i = 0; i < ranks.length; i++) ranks[i] = found.get(i).rank;
+        Arrays.sort(ranks);
+        for (int rank : ranks) result.add(orderedItems[rank].item);
+        return result;
+    }
+
+    private void rebuildOrder() {
+        orderedItems = items.values().toArray(new IndexedItem[0]);
+        Arrays.sort(orderedItems, BY_NAME);
+        for (int i = 0; i < orderedItems.length; i++) orderedItems[i].rank = i;
+        orderDirty = false;
+    }
+
+    /**
+     * Lower case, no diacritics.
+     */
+    static String normalize(String text) {
+        if (text == null) return "";
+        return DIACRITICS.matcher(Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFD))
+                .replaceAll("");
+    }
+
+    private interface Filter {
+        boolean accepts(IndexedItem indexed);
+    }
+
+    private void collect(PostingList candidates, List<IndexedItem> found, Filter filter) {
+        for (int i = 0; i < candidates.size; i++) {
+            IndexedItem indexed = items.get(candidates.ids[i]);
+            if (indexed != null && filter.accepts(indexed)) found.add(indexed);
+        }
+    }
+
+    private PostingList trigramCandidates(String pattern) {
+        // intersect posting lists starting with the shortest one
+        List<PostingList> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= pattern.length(); i++) {
+            PostingList list = trigrams.get(trigramKey(pattern, i));
+            if (list == null) return null;
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+        PostingList result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.size > 0; i++) result = result.intersect(lists.get(i));
+        return result;
+    }
+
+    /**
+     * @return number of low stock items
+     */
+    int lowStockCount() {
+        lock.readLock().lock();
+        try {
+            return lowStock.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return low stock items ordered by name
+     */
+    ArrayList<Item> lowStockItems() {
+        ArrayList<IndexedItem> found = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int id : lowStock) found.add(items.get(id));
+        } finally {
+            lock.readLock().unlock();
+        }
+        found.sort(BY_NAME);
+        ArrayList<Item> result = new ArrayList<>(found.size());
+        for (IndexedItem indexed : found) result.add(indexed.item);
+        return result;
+    }
+
+    private void putUnlocked(Item item) {
+        if (item.getCurAmount() <= item.getMinAmount()) {
+            lowStock.add(item.getId());
+        } else {
+            lowStock.remove(item.getId());
+        }
+        IndexedItem previous = items.get(item.getId());
+        // unchanged item keeps its instance (UI updates compare instances)
+        if (previous != null && previous.item.hasSameValues(item)) return;
+        if (previous != null && previous.hasSameText(item)) {
+            // searchable text unchanged - only replace the item instance, order stays the same
+            IndexedItem replacement = new IndexedItem(item);
+            replacement.rank = previous.rank;
+            if (previous.rank >= 0) orderedItems[previous.rank] = replacement;
+            items.put(item.getId(), replacement);
+            return;
+        }
+        if (previous != null) unindex(item.getId(), previous);
+        IndexedItem indexed = new IndexedItem(item);
+        items.put(item.getId(), indexed);
+        index(item.getId(), indexed);
+        orderDirty = true;
+    }
+
+    /**
+     * @param barcode exact (trimmed) barcode
+     * @return item with the barcode, null if there is none in the index
+     */
+    Item findByBarcode(String barcode) {
+        lock.readLock().lock();
+        try {
+            Integer id = barcodes.get(barcode);
+            return id == null ? null : items.get(id).item;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String barcodeKey(Item item) {
+        return item.getBarcode() == null ? "" : item.getBarcode().trim();
+    }
+
+    private void index(int id, IndexedItem indexed) {
+        String barcode = barcodeKey(indexed.item);
+        if (!barcode.isEmpty()) barcodes.put(barcode, id);
+        for (long key : trigramKeys(indexed)) trigrams.computeIfAbsent(key, k -> new PostingList()).add(id);
+    }
+
+    private void unindex(int id, IndexedItem indexed) {
+        barcodes.remove(barcodeKey(indexed.item), id);
+        for (long key : trigramKeys(indexed)) {
+            PostingList list = trigrams.get(key);
+            if (list == null) continue;
+            list.remove(id);
+            if (list.size == 0) trigrams.remove(key);
+        }
+    }
+
+    private static HashSet<Long> trigramKeys(IndexedItem indexed) {
+        HashSet<Long> keys = new HashSet<>();
+        for (int i = 0; i + 3 <= indexed.name.length(); i++) keys.add(trigramKey(indexed.name, i));
+        for (int i = 0; i + 3 <= indexed.barcode.length(); i++) keys.add(trigramKey(indexed.barcode, i));
+        return keys;
+    }
+
+    private static long trigramKey(String text, int from) {
+        return ((long) text.charAt(from) << 32) | ((long) text.charAt(from + 1) << 16) | text.charAt(from + 2);
+    }
+
+    /**
+     * Sorted set of item IDs.
+     */
+    private static class PostingList {
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) return;
+            position = -position - 1;
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position < 0) return;
+            System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+            size--;
+        }
+
+        PostingList intersect(PostingList other) {
+            PostingList result = new PostingList();
+            result.ids = new int[Math.max(1, Math.min(size, other.size))];
+            int i = 0, j = 0;
+            while (i < size && j < other.size) {
+                if (ids[i] < other.ids[j]) {
+                    i++;
+                } else if (ids[i] > other.ids[j]) {
+                    j++;
+                } else {
+                    result.ids[result.size++] = ids[i];
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+
+}
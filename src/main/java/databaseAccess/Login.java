@@ -116,6 +116,7 @@ public class Login {
         //delete login-required access content
         ItemDAO.dropItemList();
         CategoryDAO.getInstance().dropCategoryMap();
+        ChangeFeed.getInstance().reset();
     }
 
 
@@ -0,0 +1,76 @@
+package databaseAccess;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects execution counts and times of named DB operations.
+ * Singleton. Thread-safe.
+ */
+
+public class QueryStatistics {
+    // singleton
+    private QueryStatistics() {}
+    private static final QueryStatistics queryStatistics = new QueryStatistics();
+    public static QueryStatistics getInstance() { return queryStatistics; }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Execution statistics of one operation.
+     */
+    public static class Entry {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getCount() { return count.sum(); }
+
+        public double getAverageMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / (n * 1e6);
+        }
+
+        public double getMaxMillis() { return maxNanos.get() / 1e6; }
+
+        public String toString() {
+            return String.format("%d x, avg %.3f ms, max %.3f ms", getCount(), getAverageMillis(), getMaxMillis());
+        }
+    }
+
+    /**
+     * Records one execution of the operation.
+     * @param operation name of the operation
+     * @param startNanos System.nanoTime() taken before the execution
+     */
+    public void record(String operation, long startNanos) {
+        entries.computeIfAbsent(operation, key -> new Entry()).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return statistics of all recorded operations sorted by name
+     */
+    public Map<String, Entry> getEntries() {
+        return new TreeMap<>(entries);
+    }
+
+    /**
+     * @return human readable overview of all recorded operations
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : getEntries().entrySet())
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return builder.toString();
+    }
+
+}
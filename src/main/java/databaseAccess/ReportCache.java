@@ -0,0 +1,142 @@
+package databaseAccess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of report results keyed by report and its parameter.
+ * Results expire after the time-to-live of the report (changes of other clients),
+ * writes of this application invalidate entries of the affected reports only.
+ * Concurrent requests for the same report share one running query (single flight).
+ * Singleton. Thread-safe.
+ */
+
+class ReportCache {
+    // singleton
+    private ReportCache() {}
+    private static final ReportCache reportCache = new ReportCache();
+    static ReportCache getInstance() { return reportCache; }
+
+    /**
+     * Cached reports and their time-to-live.
+     */
+    enum Report {
+        EXPIRY(60 * 1000),
+        LOW_STOCK(60 * 1000),
+        CONSUMPTION(5 * 60 * 1000);
+
+        private final long ttlMillis;
+
+        Report(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+        }
+    }
+
+    /**
+     * Query computing the report.
+     * @param <T> type of report records
+     */
+    @FunctionalInterface
+    interface Loader<T> {
+        List<T> load() throws Exception;
+    }
+
+    private static class Key {
+        final Report report;
+        final String parameter;
+
+        Key(Report report, String parameter) {
+            this.report = report;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return report == other.report && parameter.equals(other.parameter);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * report.hashCode() + parameter.hashCode();
+        }
+    }
+
+    private static class Entry {
+        final CompletableFuture<List<?>> result = new CompletableFuture<>();
+        // time of completion, result is valid for TTL since then
+        volatile long completedAt;
+    }
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Returns cached result of the report or computes it by the loader (in the calling thread).
+     * If the same report is being computed by another thread, waits for its result.
+     * @param report requested report
+     * @param parameter parameter of the report ("" if none)
+     * @param loader query computing the report
+     * @return unmodifiable list of records (shared by all callers)
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> get(Report report, String parameter, Loader<T> loader) throws Exception {
+        Key key = new Key(report, parameter);
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.result.isDone() && isExpired(report, entry)) {
+                entries.remove(key, entry);
+                continue;
+            }
+            if (entry != null) return (List<T>) await(entry);
+
+            Entry created = new Entry();
+            if (entries.putIfAbsent(key, created) != null) continue; // other thread started the query
+            try {
+                List<T> records = Collections.unmodifiableList(new ArrayList<>(loader.load()));
+                created.completedAt = System.currentTimeMillis();
+                created.result.complete(records);
+                return records;
+            } catch (Throwable e) {
+                // failures are not cached
+                entries.remove(key, created);
+                created.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isExpired(Report report, Entry entry) {
+        return entry.result.isCompletedExceptionally()
+                || System.currentTimeMillis() - entry.completedAt > report.ttlMillis;
+    }
+
+    private static List<?> await(Entry entry) throws Exception {
+        try {
+            return entry.result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops cached results of the reports (all parameters). Running queries are not affected,
+     * following requests start a new query.
+     */
+    void invalidate(Report... reports) {
+        for (Report report : reports) entries.keySet().removeIf(key -> key.report == report);
+    }
+
+    /**
+     * Drops all cached results (e.g. on logoff).
+     */
+    void clear() {
+        entries.clear();
+    }
+
+}
@@ -0,0 +1,61 @@
+package databaseAccess;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Handle of one (possibly running) search request.
+ * Cancelling it aborts the statement currently executed on the server.
+ * Thread-safe.
+ */
+
+public class SearchQuery {
+    private volatile boolean cancelled = false;
+    private Statement statement;
+
+    /**
+     * Cancels the search. Running statement is cancelled on the server (KILL QUERY).
+     */
+    public void cancel() {
+        Statement running;
+        synchronized (this) {
+            cancelled = true;
+            running = statement;
+        }
+        if (running == null) return;
+        try {
+            running.cancel();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Registers statement executed on behalf of this search.
+     * @throws CancellationException if the search has already been cancelled
+     */
+    synchronized void attach(Statement statement) {
+        if (cancelled) throw new CancellationException();
+        this.statement = statement;
+    }
+
+    /**
+     * Unregisters executed statement (before it is closed).
+     */
+    synchronized void detach() {
+        statement = null;
+    }
+
+    /**
+     * @throws CancellationException if the search has been cancelled
+     */
+    void checkCancelled() {
+        if (cancelled) throw new CancellationException();
+    }
+
+}
@@ -0,0 +1,192 @@
+package databaseAccess;
+
+import databaseAccess.CustomExceptions.ConcurrentModificationException;
+import databaseAccess.CustomExceptions.UserWarningException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs DB write transactions.
+ * Transactions failed due to deadlock, serialization failure or lock wait timeout are retried
+ * after exponential backoff with jitter, limited by number of attempts and total time.
+ * Counts conflicts per operation and per item (to find hot items).
+ * Singleton. Thread-safe.
+ */
+
+public class TransactionRunner {
+    // singleton
+    private TransactionRunner() {}
+    private static final TransactionRunner transactionRunner = new TransactionRunner();
+    public static TransactionRunner getInstance() { return transactionRunner; }
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long TIME_BUDGET_MILLIS = 5000;
+    private static final long BASE_BACKOFF_MILLIS = 20;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    // MySQL error codes of retryable failures
+    private static final int LOCK_WAIT_TIMEOUT_ERROR = 1205;
+    private static final int DEADLOCK_ERROR = 1213;
+    // ID used for transactions not related to one item
+    static final int NO_ITEM = 0;
+
+    private final ConcurrentHashMap<String, OperationStatistics> operations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, LongAdder> itemConflicts = new ConcurrentHashMap<>();
+
+    /**
+     * Body of the transaction. Must not commit nor rollback, may be executed repeatedly.
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    interface Transaction<T> {
+        T run(Connection conn) throws Exception;
+    }
+
+    /**
+     * Conflict statistics of one operation.
+     */
+    public static class OperationStatistics {
+        private final LongAdder transactions = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder exhausted = new LongAdder();
+        private final LongAdder optimisticConflicts = new LongAdder();
+
+        public long getTransactions() { return transactions.sum(); }
+        // transactions repeated due to deadlock / lock wait timeout / serialization failure
+        public long getRetries() { return retries.sum(); }
+        // transactions failed after all attempts
+        public long getExhausted() { return exhausted.sum(); }
+        // updates rejected by version check
+        public long getOptimisticConflicts() { return optimisticConflicts.sum(); }
+
+        public String toString() {
+            return String.format("%d x, %d retries, %d failed after retries, %d optimistic conflicts",
+                    getTransactions(), getRetries(), getExhausted(), getOptimisticConflicts());
+        }
+    }
+
+    /**
+     * Runs the transaction, retries it if it fails due to concurrent transactions.
+     * @param operation name of the operation (statistics)
+     * @param isolation transaction isolation level
+     * @param itemId ID of the affected item (statistics), NO_ITEM if not related to one item
+     * @param transaction body of the transaction
+     * @return result of the transaction
+     */
+    <T> T run(String operation, int isolation, int itemId, Transaction<T> transaction) throws Exception {
+        OperationStatistics statistics = operations.computeIfAbsent(operation, key -> new OperationStatistics());
+        statistics.transactions.increment();
+        long deadline = System.currentTimeMillis() + TIME_BUDGET_MILLIS;
+
+        for (int attempt = 1; ; attempt++) {
+            Exception failure;
+            Connection conn = ConnectionFactory.getInstance().getConnection();
+            try {
+                conn.setAutoCommit(false);
+                conn.setTransactionIsolation(isolation);
+                T result = transaction.run(conn);
+                conn.commit();
+                return result;
+            } catch (Exception e) {
+                rollback(conn);
+                if (e instanceof ConcurrentModificationException) {
+                    statistics.optimisticConflicts.increment();
+                    recordItemConflict(itemId);
+                }
+                if (!isRetryable(e)) throw e;
+                failure = e;
+            } finally {
+                ConnectionFactory.getInstance().releaseConnection(conn);
+            }
+
+            // retry (connection has been returned, locks released)
+            statistics.retries.increment();
+            recordItemConflict(itemId);
+            long backoff = backoff(attempt);
+            if (attempt >= MAX_ATTEMPTS || System.currentTimeMillis() + backoff > deadline) {
+                statistics.exhausted.increment();
+                failure.printStackTrace();
+                throw new UserWarningException("Záznam práve upravuje niekto iný, skúste to prosím znova.");
+            }
+            Thread.sleep(backoff);
+        }
+    }
+
+    /**
+     * @return true if the transaction failed due to concurrent transactions and can be repeated
+     */
+    static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (!(cause instanceof SQLException)) continue;
+            SQLException sqlException = (SQLException) cause;
+            if (sqlException.getErrorCode() == DEADLOCK_ERROR
+                    || sqlException.getErrorCode() == LOCK_WAIT_TIMEOUT_ERROR
+                    || "40001".equals(sqlException.getSQLState())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Exponential backoff with jitter (random delay between half and full exponential limit).
+     */
+    private static long backoff(int attempt) {
+        long limit = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(limit / 2, limit + 1);
+    }
+
+    private static void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void recordItemConflict(int itemId) {
+        if (itemId != NO_ITEM) itemConflicts.computeIfAbsent(itemId, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return statistics of all operations sorted by name
+     */
+    public Map<String, OperationStatistics> getOperationStatistics() {
+        return new TreeMap<>(operations);
+    }
+
+    /**
+     * @param limit maximal number of returned items
+     * @return IDs of items with the most conflicts (descending) and their conflict counts
+     */
+    public Map<Integer, Long> getHotItems(int limit) {
+        List<Map.Entry<Integer, Long>> counts = new ArrayList<>();
+        for (Map.Entry<Integer, LongAdder> entry : itemConflicts.entrySet())
+            counts.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue().sum()));
+        counts.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        LinkedHashMap<Integer, Long> hotItems = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Long> entry : counts.subList(0, Math.min(limit, counts.size())))
+            hotItems.put(entry.getKey(), entry.getValue());
+        return hotItems;
+    }
+
+    /**
+     * @return human readable overview of conflicts
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, OperationStatistics> entry : getOperationStatistics().entrySet())
+            builder.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        Map<Integer, Long> hotItems = getHotItems(10);
+        if (!hotItems.isEmpty()) builder.append("items with most conflicts (id=count): ").append(hotItems).append('\n');
+        return builder.toString();
+    }
+
+}
@@ -1,14 +1,21 @@
 package dialog;
 
 import databaseAccess.ConnectionFactory;
+import databaseAccess.CustomExceptions.UserWarningException;
 import databaseAccess.Login;
 import javafx.fxml.FXMLLoader;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
+import javafx.scene.control.TextArea;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
+
 import java.io.IOException;
+import java.util.concurrent.Future;
 
 /**
  * Creates and shows dialogs.
@@ -48,6 +55,64 @@ public class DialogFactory {
         alert.showAndWait();
     }
 
+    /**
+     * Displays longer read-only text (e.g. statistics) in a scrollable information window.
+     * @param title title of the window
+     * @param text displayed text
+     */
+    public void showText(String title, String text) {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle(title);
+        alert.setHeaderText(null);
+
+        TextArea textArea = new TextArea(text);
+        textArea.setEditable(false);
+        textArea.setPrefColumnCount(80);
+        textArea.setPrefRowCount(20);
+        alert.getDialogPane().setContent(textArea);
+        alert.setResizable(true);
+        alert.showAndWait();
+    }
+
+    /**
+     * Displays alert describing failed DB request.
+     * @param exception cause of the failure
+     */
+    public void showException(Throwable exception) {
+        if (exception instanceof UserWarningException) {
+            showAlert(Alert.AlertType.WARNING, exception.getMessage());
+        } else {
+            showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
+            exception.printStackTrace();
+        }
+    }
+
+    /**
+     * Cancels the task once the window containing the node is closed.
+     * @param node node of the dialog (may not be attached to a window yet)
+     * @param task background task to be cancelled
+     */
+    public void cancelOnClose(Node node, Future<?> task) {
+        if (node.getScene() != null && node.getScene().getWindow() != null) {
+            cancelOnClose(node.getScene().getWindow(), task);
+            return;
+        }
+        node.sceneProperty().addListener((sceneObservable, oldScene, scene) -> {
+            if (scene == null) return;
+            if (scene.getWindow() != null) {
+                cancelOnClose(scene.getWindow(), task);
+            } else {
+                scene.windowProperty().addListener((windowObservable, oldWindow, window) -> {
+                    if (window != null) cancelOnClose(window, task);
+                });
+            }
+        });
+    }
+
+    private void cancelOnClose(Window window, Future<?> task) {
+        window.addEventHandler(WindowEvent.WINDOW_HIDDEN, event -> task.cancel(true));
+    }
+
     /**
      * Shows connection details dialog for ip and port change.
      * @return true on valid connection details provided
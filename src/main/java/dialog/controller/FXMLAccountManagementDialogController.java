@@ -2,6 +2,7 @@
 package dialog.controller;
 
 import databaseAccess.AccountDAO;
+import databaseAccess.AsyncDAO;
 import databaseAccess.CustomExceptions.UserWarningException;
 import dialog.DialogFactory;
 import domain.Account;
@@ -26,7 +27,9 @@ import javafx.util.Callback;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Dialog for account management.
@@ -39,6 +42,7 @@ public class FXMLAccountManagementDialogController implements Initializable {
     @FXML private javafx.scene.control.TableView<Account> mainTable;
 
     private final ObservableList<Account> accountList = FXCollections.observableArrayList();
+    private CompletableFuture<List<Account>> pendingLoad;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -193,11 +197,12 @@ public class FXMLAccountManagementDialogController implements Initializable {
      */
     private void populateTable() {
         accountList.clear();
-        try {
-            AccountDAO.getInstance().getAccounts(accountList);
-        } catch (Exception e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Nepodarilo sa načítať.");
-        }
+        if (pendingLoad != null) pendingLoad.cancel(true);
+
+        pendingLoad = AsyncDAO.getInstance().getAccounts();
+        DialogFactory.getInstance().cancelOnClose(mainTable, pendingLoad);
+        AsyncDAO.deliver(pendingLoad, accountList::setAll,
+                e -> DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Nepodarilo sa načítať."));
     }
 
 }
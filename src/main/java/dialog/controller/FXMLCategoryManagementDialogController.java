@@ -1,6 +1,7 @@
 
 package dialog.controller;
 
+import databaseAccess.AsyncDAO;
 import databaseAccess.CategoryDAO;
 import databaseAccess.CustomExceptions.UserWarningException;
 import dialog.DialogFactory;
@@ -26,6 +27,7 @@ import javafx.util.Callback;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Dialog for category management.
@@ -37,6 +39,7 @@ public class FXMLCategoryManagementDialogController implements Initializable {
     @FXML private javafx.scene.control.TableView<Category> mainTable;
 
     ObservableList<Category> categoryList = FXCollections.observableArrayList();
+    private CompletableFuture<Void> pendingLoad;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -86,7 +89,9 @@ public class FXMLCategoryManagementDialogController implements Initializable {
                 stage.setScene(new Scene(root1));
                 stage.initModality(Modality.APPLICATION_MODAL);
                 FXMLCategoryModifyDialogController controller = fxmlLoader.getController();
-                controller.initData(targetCategory);
+                // categories of the map are shared by items, the dialog modifies a copy
+                controller.initData(new Category(targetCategory.getId(), targetCategory.getSubCatOf(),
+                        targetCategory.getName(), targetCategory.getColor(), targetCategory.getNote()));
                 stage.setTitle("Upraviť kategóriu");
                 stage.showAndWait();
 
@@ -188,14 +193,16 @@ public class FXMLCategoryManagementDialogController implements Initializable {
      */
     private void tableRefresh() {
         categoryList.clear();
-        try {
-            CategoryDAO.getInstance().reloadCatList();
-        } catch (UserWarningException e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, e.getMessage());
-        } catch (Exception e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-        }
-        categoryList.addAll(CategoryDAO.getInstance().getCategoryMap().values());
+        if (pendingLoad != null) pendingLoad.cancel(true);
+
+        pendingLoad = AsyncDAO.getInstance().reloadCatList();
+        DialogFactory.getInstance().cancelOnClose(mainTable, pendingLoad);
+        AsyncDAO.deliver(pendingLoad,
+                result -> categoryList.setAll(CategoryDAO.getInstance().getCategoryMap().values()),
+                e -> {
+                    DialogFactory.getInstance().showException(e);
+                    categoryList.setAll(CategoryDAO.getInstance().getCategoryMap().values());
+                });
     }
 
 }
@@ -4,8 +4,8 @@ package dialog.controller;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import databaseAccess.*;
-import databaseAccess.CustomExceptions.UserWarningException;
 import dialog.DialogFactory;
 import domain.Item;
 import javafx.beans.property.Property;
@@ -35,6 +35,7 @@ public class FXMLCheckAmountDialogController implements Initializable {
     @FXML private javafx.scene.control.TableView<Item> mainTable;
 
     private final ObservableList<Item> itemList = FXCollections.observableArrayList();
+    private CompletableFuture<List<Item>> pendingLoad;
 
     /**
      * Requests current list of Items from DB and displays it in the table.
@@ -121,13 +122,18 @@ public class FXMLCheckAmountDialogController implements Initializable {
      */
     private void populateTable() {
         itemList.clear();
-        try {
-            ComplexQueryHandler.getInstance().getLowStockItems(itemList);
-        } catch (UserWarningException e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, e.getMessage());
-        } catch (Exception e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-        }
+        mainTable.setPlaceholder(new ProgressIndicator());
+        if (pendingLoad != null) pendingLoad.cancel(true);
+
+        pendingLoad = AsyncDAO.getInstance().getLowStockItems();
+        DialogFactory.getInstance().cancelOnClose(mainTable, pendingLoad);
+        AsyncDAO.deliver(pendingLoad, records -> {
+            mainTable.setPlaceholder(new Label("Žiadne záznamy."));
+            itemList.setAll(records);
+        }, e -> {
+            mainTable.setPlaceholder(new Label("Žiadne záznamy."));
+            DialogFactory.getInstance().showException(e);
+        });
     }
 
 }
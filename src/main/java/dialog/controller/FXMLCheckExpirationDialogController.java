@@ -4,8 +4,8 @@ package dialog.controller;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import databaseAccess.*;
-import databaseAccess.CustomExceptions.UserWarningException;
 import dialog.DialogFactory;
 import domain.ExpiryDateWarningRecord;
 import javafx.beans.property.Property;
@@ -28,13 +28,15 @@ import javafx.util.Callback;
 
 /**
  * Dialog for soon expiration date display.
- * Lists all items with soon expiry date.
+ * Lists all items with stock expiring within selected horizon (expired by default).
  */
 
 public class FXMLCheckExpirationDialogController implements Initializable {
     @FXML private javafx.scene.control.TableView<ExpiryDateWarningRecord> mainTable;
+    @FXML private ChoiceBox<ExpiryIndex.Horizon> horizonChoiceBox;
 
     private final ObservableList<ExpiryDateWarningRecord> itemList = FXCollections.observableArrayList();
+    private CompletableFuture<List<ExpiryDateWarningRecord>> pendingLoad;
 
     /**
      * Requests current list of Items from DB and displays it in the table.
@@ -62,6 +64,10 @@ public class FXMLCheckExpirationDialogController implements Initializable {
         mainTable.setPlaceholder(new Label("Žiadne záznamy."));
         Property<ObservableList<ExpiryDateWarningRecord>> listProperty = new SimpleObjectProperty<>(itemList);
         mainTable.itemsProperty().bind(listProperty);
+
+        horizonChoiceBox.getItems().setAll(ExpiryIndex.Horizon.values());
+        horizonChoiceBox.setValue(ExpiryIndex.Horizon.EXPIRED);
+        horizonChoiceBox.valueProperty().addListener((observable, oldValue, newValue) -> populateTable());
         populateTable();
     }
 
@@ -118,17 +124,22 @@ public class FXMLCheckExpirationDialogController implements Initializable {
     }
 
     /**
-     * Populates table with provided UserAccounts.
+     * Populates table with items expiring within selected horizon.
      */
     private void populateTable() {
         itemList.clear();
-        try {
-            ComplexQueryHandler.getInstance().getSoonExpiryItems(itemList);
-        } catch (UserWarningException e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, e.getMessage());
-        } catch (Exception e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-        }
+        mainTable.setPlaceholder(new ProgressIndicator());
+        if (pendingLoad != null) pendingLoad.cancel(true);
+
+        pendingLoad = AsyncDAO.getInstance().getSoonExpiryItems(horizonChoiceBox.getValue());
+        DialogFactory.getInstance().cancelOnClose(mainTable, pendingLoad);
+        AsyncDAO.deliver(pendingLoad, records -> {
+            mainTable.setPlaceholder(new Label("Žiadne záznamy."));
+            itemList.setAll(records);
+        }, e -> {
+            mainTable.setPlaceholder(new Label("Žiadne záznamy."));
+            DialogFactory.getInstance().showException(e);
+        });
     }
 
 }
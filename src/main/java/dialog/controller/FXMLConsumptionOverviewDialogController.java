@@ -3,8 +3,8 @@ package dialog.controller;
 
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import databaseAccess.*;
-import databaseAccess.CustomExceptions.UserWarningException;
 import dialog.DialogFactory;
 import domain.ConsumptionOverviewRecord;
 import javafx.beans.property.Property;
@@ -26,6 +26,7 @@ public class FXMLConsumptionOverviewDialogController implements Initializable {
     @FXML private javafx.scene.control.TableView<ConsumptionOverviewRecord> mainTable;
 
     private final ObservableList<ConsumptionOverviewRecord> itemList = FXCollections.observableArrayList();
+    private CompletableFuture<List<ConsumptionOverviewRecord>> pendingLoad;
 
     /**
      * Requests current list of Items from DB and displays it in the table.
@@ -66,13 +67,18 @@ public class FXMLConsumptionOverviewDialogController implements Initializable {
      */
     private void populateTable() {
         itemList.clear();
-        try {
-            ComplexQueryHandler.getInstance().getConsumptionOverviewRecords(itemList);
-        } catch (UserWarningException e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, e.getMessage());
-        } catch (Exception e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-        }
+        mainTable.setPlaceholder(new ProgressIndicator());
+        if (pendingLoad != null) pendingLoad.cancel(true);
+
+        pendingLoad = AsyncDAO.getInstance().getConsumptionOverviewRecords();
+        DialogFactory.getInstance().cancelOnClose(mainTable, pendingLoad);
+        AsyncDAO.deliver(pendingLoad, records -> {
+            mainTable.setPlaceholder(new Label("Žiadne záznamy."));
+            itemList.setAll(records);
+        }, e -> {
+            mainTable.setPlaceholder(new Label("Žiadne záznamy."));
+            DialogFactory.getInstance().showException(e);
+        });
     }
 
 }
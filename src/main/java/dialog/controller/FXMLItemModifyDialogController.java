@@ -52,6 +52,9 @@ public class FXMLItemModifyDialogController implements Initializable {
     private HashSet<CustomAttribute> attributesToDelete = new HashSet<>();
     private HashSet<CustomAttribute> originalAttributes;
     private boolean isNewItem = false;
+    // result of the dialog (state of the item after successful insert / update, deletion)
+    private Item updatedItem;
+    private boolean itemDeleted = false;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -80,7 +83,7 @@ public class FXMLItemModifyDialogController implements Initializable {
             minAmountTextField.setText(Integer.toString(item.getMinAmount()));
             unitTextField.setText(item.getUnit());
             categoryChoiceBox.getItems().addAll(CategoryDAO.getInstance().getCategoryMap().values());
-            categoryChoiceBox.setValue(CategoryDAO.getInstance().getCategoryMap().get(item.getCategory()));
+            categoryChoiceBox.setValue(item.getCategoryRecord());
 
             // custom attributes table
             TableColumn nameColumn = new TableColumn("Atribút");
@@ -130,7 +133,7 @@ public class FXMLItemModifyDialogController implements Initializable {
             Item newItem = new Item(0, nameTextField.getText(), codeTextField.getText(), minAmount,
                     0, unitTextField.getText(), "", categoryChoiceBox.getValue().getId());
             try {
-                ItemDAO.getInstance().itemInsert(newItem, attributesToAdd);
+                updatedItem = ItemDAO.getInstance().itemInsert(newItem, attributesToAdd);
                 df.showAlert(Alert.AlertType.INFORMATION, "Nová položka bola úspešne vytvorená.");
                 cancelButton();
             } catch (UserWarningException e) {
@@ -164,7 +167,7 @@ public class FXMLItemModifyDialogController implements Initializable {
                 return;
             }
             try {
-                ItemDAO.getInstance().itemUpdate(item, newBasicValues, attributesToAdd, attributesToDelete);
+                updatedItem = ItemDAO.getInstance().itemUpdate(item, newBasicValues, attributesToAdd, attributesToDelete);
                 df.showAlert(Alert.AlertType.INFORMATION, "Úprava položky prebehla úspešne.");
             } catch (databaseAccess.CustomExceptions.ConcurrentModificationException e) {
                 // todo: moznost pozriet si konkurentne zmeny a eventualne ich prepisat aj tak
@@ -189,6 +192,7 @@ public class FXMLItemModifyDialogController implements Initializable {
         // todo: extra warning before delete
         try {
             ItemDAO.itemDelete(item);
+            itemDeleted = true;
             df.showAlert(Alert.AlertType.INFORMATION, "Položka bola úspešne odstránená z databázy.");
         } catch (UserWarningException e) {
             df.showAlert(Alert.AlertType.ERROR, e.getMessage());
@@ -218,6 +222,20 @@ public class FXMLItemModifyDialogController implements Initializable {
         mainAnchorPane.setDisable(false);
     }
 
+    /**
+     * @return state of the item after successful insert or update, null if nothing was saved
+     */
+    public Item getUpdatedItem() {
+        return updatedItem;
+    }
+
+    /**
+     * @return true if the item has been deleted
+     */
+    public boolean isItemDeleted() {
+        return itemDeleted;
+    }
+
     /**
      * Button 'Zrusit' Cancels planed changes.
      */
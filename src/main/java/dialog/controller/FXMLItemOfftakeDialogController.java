@@ -1,8 +1,8 @@
 
 package dialog.controller;
 
+import databaseAccess.AsyncDAO;
 import databaseAccess.CustomExceptions.UserWarningException;
-import databaseAccess.ItemDAO;
 import dialog.DialogFactory;
 import domain.ExpiryDateWarningRecord;
 import domain.Item;
@@ -17,6 +17,7 @@ import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableColumn.CellEditEvent;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -28,7 +29,9 @@ import javafx.stage.Stage;
 import java.awt.*;
 import java.net.URL;
 import java.time.LocalDate;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Dialog for Item offtake.
@@ -46,6 +49,9 @@ public class FXMLItemOfftakeDialogController implements Initializable {
     private Item item;
     private final ObservableList<ItemOfftakeRecord> requestList = FXCollections.observableArrayList();
     private boolean isTrash = false;
+    private CompletableFuture<List<ItemOfftakeRecord>> pendingLoad;
+    // state of the item after successful offtake
+    private Item updatedItem;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -103,14 +109,14 @@ public class FXMLItemOfftakeDialogController implements Initializable {
         );
 
         mainTable.getColumns().addAll(expirationColumn, currentAmountColumn, requestedAmountColumn);
-        refreshTable();
         Property<ObservableList<ItemOfftakeRecord>> listProperty = new SimpleObjectProperty<>(requestList);
-        mainTable.setPlaceholder(new Label("Pre túto položku neexistujú záznamy."));
         mainTable.itemsProperty().bind(listProperty);
 
         if (isTrash) {
             amountRequestTextField.setText(String.valueOf((((ExpiryDateWarningRecord) item).getExpiryAmount())));
-            optimiseButtonAction();
+            refreshTable(this::optimiseButtonAction);
+        } else {
+            refreshTable();
         }
     }
 
@@ -137,32 +143,36 @@ public class FXMLItemOfftakeDialogController implements Initializable {
         }
 
         if (hasRequest) {
-            try {
-                if (isTrash) {
-                    ItemDAO.getInstance().itemTrash(item, requestList);
-                } else {
-                    ItemDAO.getInstance().itemOfftake(item, requestList);
-                }
+            // DB request runs in background, the dialog stays disabled until it finishes
+            ObservableList<ItemOfftakeRecord> requests = FXCollections.observableArrayList(requestList);
+            CompletableFuture<Item> offtake = AsyncDAO.getInstance().itemOfftake(item, requests, isTrash);
+            AsyncDAO.deliver(offtake, result -> {
+                updatedItem = result;
                 DialogFactory.getInstance().showAlert(Alert.AlertType.INFORMATION,
                         isTrash ? "Položky úspešne odstránené." : "Výber položky prebehla úspešne.");
                 cancelButtonAction();
-                return;
-            } catch (UserWarningException e) {
-                DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, e.getMessage());
-                refreshTable();
-            } catch (Exception e) {
-                DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-                cancelButtonAction();
-                return;
-            }
+            }, e -> {
+                if (e instanceof UserWarningException) {
+                    DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, e.getMessage());
+                    refreshTable();
+                    rootAnchorPane.setDisable(false);
+                } else {
+                    DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
+                    cancelButtonAction();
+                }
+            });
         } else {
             DialogFactory.getInstance().showAlert(Alert.AlertType.INFORMATION,
                     isTrash ? "Položka nebola vyhodená." : "Položka nebola vybraná.");
             cancelButtonAction();
-            return;
         }
+    }
 
-        rootAnchorPane.setDisable(false);
+    /**
+     * @return state of the item after the offtake, null if nothing was taken
+     */
+    public Item getUpdatedItem() {
+        return updatedItem;
     }
 
     /**
@@ -209,14 +219,28 @@ public class FXMLItemOfftakeDialogController implements Initializable {
     }
 
     private void refreshTable() {
+        refreshTable(() -> {});
+    }
+
+    /**
+     * Loads available varieties of the item in background.
+     * @param onLoaded action performed once the varieties are displayed
+     */
+    private void refreshTable(Runnable onLoaded) {
         requestList.clear();
-        try {
-            ItemDAO.getInstance().getItemVarieties(item.getId(), requestList);
-        } catch (UserWarningException e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, e.getMessage());
-        } catch (Exception e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-        }
+        mainTable.setPlaceholder(new ProgressIndicator());
+        if (pendingLoad != null) pendingLoad.cancel(true);
+
+        pendingLoad = AsyncDAO.getInstance().getItemVarieties(item.getId());
+        DialogFactory.getInstance().cancelOnClose(mainTable, pendingLoad);
+        AsyncDAO.deliver(pendingLoad, records -> {
+            mainTable.setPlaceholder(new Label("Pre túto položku neexistujú záznamy."));
+            requestList.setAll(records);
+            onLoaded.run();
+        }, e -> {
+            mainTable.setPlaceholder(new Label("Pre túto položku neexistujú záznamy."));
+            DialogFactory.getInstance().showException(e);
+        });
     }
 
     @FXML
@@ -1,8 +1,8 @@
 
 package dialog.controller;
 
+import databaseAccess.AsyncDAO;
 import databaseAccess.CustomExceptions.UserWarningException;
-import databaseAccess.ItemDAO;
 import dialog.DialogFactory;
 import domain.Item;
 import javafx.application.Platform;
@@ -15,6 +15,7 @@ import java.net.URL;
 import java.time.LocalDate;
 import java.util.Date;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 
 public class FXMLItemSupplyDialogController implements Initializable {
 
@@ -23,6 +24,8 @@ public class FXMLItemSupplyDialogController implements Initializable {
     @FXML private javafx.scene.control.DatePicker newExpirationDatePicker;
     
     private Item item;
+    // state of the item after successful supply
+    private Item updatedItem;
     
     @Override
     public void initialize(URL url, ResourceBundle rb) {
@@ -66,18 +69,30 @@ public class FXMLItemSupplyDialogController implements Initializable {
         }
 
 
-        try {
-            ItemDAO.getInstance().itemSupply(item.getId(), itemAmouunt, expiration);
+        // DB request runs in background, the dialog stays disabled until it finishes
+        newAmountLabel.getScene().getRoot().setDisable(true);
+        CompletableFuture<Item> supply = AsyncDAO.getInstance().itemSupply(item.getId(), itemAmouunt, expiration);
+        AsyncDAO.deliver(supply, result -> {
+            updatedItem = result;
             df.showAlert(Alert.AlertType.INFORMATION, "Vklad položky prebehol úspešne.");
-        } catch (UserWarningException e) {
-            df.showAlert(Alert.AlertType.WARNING, e.getMessage());
-        } catch (Exception e) {
-            df.showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-        } finally {
             cancelButton();
-        }
+        }, e -> {
+            if (e instanceof UserWarningException) {
+                df.showAlert(Alert.AlertType.WARNING, e.getMessage());
+            } else {
+                df.showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
+            }
+            cancelButton();
+        });
     }
     
+    /**
+     * @return state of the item after the supply, null if nothing was supplied
+     */
+    public Item getUpdatedItem() {
+        return updatedItem;
+    }
+
     // button "Zrušiť"
     @FXML
     private void cancelButton() {
@@ -1,39 +1,61 @@
-
 package dialog.controller;
 
-import databaseAccess.CustomExceptions.UserWarningException;
-import databaseAccess.ItemDAO;
+import databaseAccess.AsyncDAO;
 import dialog.DialogFactory;
 import domain.Item;
 import domain.ItemMoveLogRecord;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
 import javafx.scene.control.Alert;
+import javafx.scene.control.DatePicker;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.control.ScrollBar;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.stage.Stage;
 
 import java.net.URL;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Dialog for Item transactions view.
+ * Transactions are loaded page by page as the user scrolls down.
  */
 
 public class FXMLItemTransactionsDialogController implements Initializable {
 
     @FXML private javafx.scene.control.TableView<ItemMoveLogRecord> mainTable;
+    @FXML private DatePicker fromDatePicker;
+    @FXML private DatePicker toDatePicker;
+
+    private static final int PAGE_SIZE = 100;
+    // next page is requested when the table is scrolled below this part of its content
+    private static final double LOAD_THRESHOLD = 0.9;
+
+    private Item item;
+    private LocalDate from, to;
+    private boolean hasMorePages = false;
+    private CompletableFuture<ArrayList<ItemMoveLogRecord>> pendingLoad;
 
     @Override
     public void initialize(URL url, ResourceBundle rb) {
-
+        // scroll bar exists once the skin of the table is created
+        mainTable.skinProperty().addListener((observable, oldSkin, skin) -> {
+            if (skin != null) Platform.runLater(this::watchScrolling);
+        });
     }
 
     /**
-     * Populates TableView with provided list of transactions.
+     * Populates TableView with the first page of transactions.
      */
     public void initData(Item item) {
         if (item == null) {
@@ -41,6 +63,7 @@ public class FXMLItemTransactionsDialogController implements Initializable {
             closeDialog();
             return;
         }
+        this.item = item;
 
         TableColumn<ItemMoveLogRecord, Date> transDate = new TableColumn<>("Dátum");
         transDate.setCellValueFactory(new PropertyValueFactory<>("date"));
@@ -55,18 +78,73 @@ public class FXMLItemTransactionsDialogController implements Initializable {
         transUsername.setCellValueFactory(new PropertyValueFactory<>("username"));
 
         mainTable.getColumns().addAll(transDate, transAmount, itemExpirationColumn, transUsername);
-        mainTable.setPlaceholder(new Label("Zatiaľ žiadne pohyby."));
+        reload();
+    }
+
+    /**
+     * BUTTON "Filtrovat" Displays transactions within selected dates only.
+     */
+    @FXML
+    private void filterButtonAction() {
+        from = fromDatePicker.getValue();
+        to = toDatePicker.getValue();
+        if (from != null && to != null && from.isAfter(to)) {
+            DialogFactory.getInstance().showAlert(Alert.AlertType.WARNING, "Neplatný rozsah dátumov.");
+            return;
+        }
+        reload();
+    }
 
-        try {
-            ArrayList<ItemMoveLogRecord> logRecords = ItemDAO.getInstance().getItemTransactions(item.getId());
+    /**
+     * Discards displayed transactions, loads the first page.
+     */
+    private void reload() {
+        if (pendingLoad != null) pendingLoad.cancel(true);
+        pendingLoad = null;
+        mainTable.getItems().clear();
+        mainTable.setPlaceholder(new ProgressIndicator());
+        hasMorePages = true;
+        loadNextPage();
+    }
+
+    /**
+     * Requests following page of transactions (if there is one and no request is pending).
+     */
+    private void loadNextPage() {
+        if (!hasMorePages || pendingLoad != null) return;
+        List<ItemMoveLogRecord> records = mainTable.getItems();
+        ItemMoveLogRecord last = records.isEmpty() ? null : records.get(records.size() - 1);
+
+        CompletableFuture<ArrayList<ItemMoveLogRecord>> load =
+                AsyncDAO.getInstance().getItemTransactions(item.getId(), from, to, last, PAGE_SIZE);
+        pendingLoad = load;
+        DialogFactory.getInstance().cancelOnClose(mainTable, load);
+        AsyncDAO.deliver(load, logRecords -> {
+            if (pendingLoad != load) return;
+            pendingLoad = null;
+            hasMorePages = logRecords.size() == PAGE_SIZE;
+            mainTable.setPlaceholder(new Label("Zatiaľ žiadne pohyby."));
             mainTable.getItems().addAll(logRecords);
-        } catch (UserWarningException e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, e.getMessage());
-            closeDialog();
-        } catch (Exception e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-            e.printStackTrace();
+        }, e -> {
+            if (pendingLoad != load) return;
+            pendingLoad = null;
+            DialogFactory.getInstance().showException(e);
             closeDialog();
+        });
+    }
+
+    /**
+     * Loads following page when the table is scrolled near to its end.
+     */
+    private void watchScrolling() {
+        for (Node node : mainTable.lookupAll(".scroll-bar")) {
+            if (!(node instanceof ScrollBar)) continue;
+            ScrollBar scrollBar = (ScrollBar) node;
+            if (scrollBar.getOrientation() != Orientation.VERTICAL) continue;
+            scrollBar.valueProperty().addListener((observable, oldValue, value) -> {
+                if (value.doubleValue() >= scrollBar.getMin()
+                        + LOAD_THRESHOLD * (scrollBar.getMax() - scrollBar.getMin())) loadNextPage();
+            });
         }
     }
 
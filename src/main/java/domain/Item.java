@@ -3,6 +3,8 @@ package domain;
 
 import databaseAccess.CategoryDAO;
 
+import java.util.Objects;
+
 /**
  * Represents one record in the table "item".
  */
@@ -16,9 +18,28 @@ public class Item {
     private final String unit;
     private final String note;
     private final int category;
+    // version of item details (optimistic concurrency control of item updates)
+    private final int version;
+    // category resolved from the category map of the recorded version (shared Category instance)
+    private volatile ResolvedCategory resolvedCategory;
+
+    private static class ResolvedCategory {
+        final long mapVersion;
+        final Category category;
+
+        ResolvedCategory(long mapVersion, Category category) {
+            this.mapVersion = mapVersion;
+            this.category = category;
+        }
+    }
 
     public Item(int id, String name, String barcode, int minAmount,
             int curAmount, String unit, String note, int category) {
+        this(id, name, barcode, minAmount, curAmount, unit, note, category, 0);
+    }
+
+    public Item(int id, String name, String barcode, int minAmount,
+            int curAmount, String unit, String note, int category, int version) {
         this.id = id;
         this.name = name;
         this.barcode = barcode;
@@ -27,6 +48,7 @@ public class Item {
         this.unit = unit;
         this.note = note;
         this.category = category;
+        this.version = version;
     }
     
     public int getId() {
@@ -61,8 +83,36 @@ public class Item {
         return category;
     }
     
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return category of the item, null if unknown (looked up in the category map only after it changes)
+     */
+    public Category getCategoryRecord() {
+        CategoryDAO.Snapshot categories = CategoryDAO.getInstance().getSnapshot();
+        ResolvedCategory resolved = resolvedCategory;
+        if (resolved == null || resolved.mapVersion != categories.getVersion()) {
+            resolved = new ResolvedCategory(categories.getVersion(), categories.get(category));
+            resolvedCategory = resolved;
+        }
+        return resolved.category;
+    }
+
     public String getCategoryName() {
-        return CategoryDAO.getInstance().getCategoryMap().get(getCategory()).getName();
+        Category resolved = getCategoryRecord();
+        return resolved == null ? "" : resolved.getName();
+    }
+
+    /**
+     * @return true if the other item represents the same record with the same values
+     */
+    public boolean hasSameValues(Item other) {
+        return other != null && id == other.id && minAmount == other.minAmount && curAmount == other.curAmount
+                && category == other.category && version == other.version && Objects.equals(name, other.name)
+                && Objects.equals(barcode, other.barcode) && Objects.equals(unit, other.unit)
+                && Objects.equals(note, other.note);
     }
 
 }
@@ -1,11 +1,18 @@
 package domain;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
 /**
  * Represents one transaction - (date, amount, username)
  */
 
 public class ItemMoveLogRecord {
     private String date, amount, username, expiration;
+    // position of the record in the log (time, move ID, expiration) - used to load following records
+    private LocalDateTime time;
+    private int moveId;
+    private LocalDate expirationDate;
 
     public ItemMoveLogRecord(String date, String amount, String username) {
         new ItemMoveLogRecord(date, amount, username, "združené");
@@ -18,11 +25,21 @@ public class ItemMoveLogRecord {
         this.expiration = expiration;
     }
 
+    public ItemMoveLogRecord(LocalDateTime time, int moveId, int amount, String username, LocalDate expiration) {
+        this(time.toLocalDate().toString(), Integer.toString(amount), username, expiration.toString());
+        this.time = time;
+        this.moveId = moveId;
+        this.expirationDate = expiration;
+    }
+
     public String getDate() { return date; }
     public String getAmount() { return amount; }
     public String getUsername() {return username; }
     public String getExpiration() {
         return expiration;
     }
+    public LocalDateTime getTime() { return time; }
+    public int getMoveId() { return moveId; }
+    public LocalDate getExpirationDate() { return expirationDate; }
 
 }
@@ -1,14 +1,22 @@
 
 package mainWindow;
 
+import databaseAccess.AsyncDAO;
+import databaseAccess.BackgroundScheduler;
+import databaseAccess.CategoryDAO;
+import databaseAccess.ChangeFeed;
+import databaseAccess.ComplexQueryHandler;
 import databaseAccess.ConnectionFactory;
-import databaseAccess.CustomExceptions.UserWarningException;
+import databaseAccess.ExpiryIndex;
 import databaseAccess.ItemDAO;
 import databaseAccess.Login;
+import databaseAccess.QueryStatistics;
+import databaseAccess.TransactionRunner;
 import dialog.DialogFactory;
 import dialog.controller.*;
 import domain.CustomAttribute;
 import domain.Item;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -17,6 +25,7 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.input.KeyCode;
@@ -24,6 +33,7 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.paint.Paint;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -33,10 +43,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The main window of the application.
@@ -55,14 +69,30 @@ public class FXMLMainWindowController implements Initializable {
     @FXML private javafx.scene.control.TextField searchTextField;
     @FXML private javafx.scene.control.Menu adminMenu;
     @FXML private javafx.scene.control.Label lastRefreshLabel;
+    @FXML private javafx.scene.control.Label expiryWarningLabel;
+    @FXML private javafx.scene.control.Label lowStockWarningLabel;
     @FXML private javafx.scene.control.CheckBox autoRefreshCheckBox;
 
 
     //stores currently selected item custom attributes
     private HashSet<CustomAttribute> selectedItemCustomAttributes;
 
-    // thread for table auto-refresh
-    private TableRefreshThread tableRefreshThread;
+    // periodic refresh of the main table, null if auto-refresh is off
+    private BackgroundScheduler.Job tableRefreshJob;
+    // time of the last refresh requested by tableRefreshJob
+    private volatile long lastAutoRefresh = 0;
+    private BackgroundScheduler.Job rollupRepairJob;
+
+    // running background DB requests (cancelled when superseded)
+    private CompletableFuture<? extends List<Item>> pendingReload;
+    private CompletableFuture<HashSet<CustomAttribute>> pendingAttributesLoad;
+
+    // version of the category map used by displayed rows
+    private long displayedCategoryVersion = -1;
+
+    // search is started once the user stops typing for a while
+    private static final int SEARCH_DELAY_MILLIS = 300;
+    private final PauseTransition searchDelay = new PauseTransition(Duration.millis(SEARCH_DELAY_MILLIS));
 
     @FXML
     private void openLogInSettings() {
@@ -106,6 +136,15 @@ public class FXMLMainWindowController implements Initializable {
         selectedItemPropertiesTable.getColumns().addAll(attributeName, attributeValue);
         selectedItemPropertiesTable.setPlaceholder(new Label("Bez ďalších atribútov."));
 
+        // expiry warnings (lots crossing expiry horizons are reported by background thread)
+        ExpiryIndex.getInstance().addListener(crossed -> Platform.runLater(this::refreshExpiryWarning));
+
+        // search as you type
+        searchDelay.setOnFinished(event -> searchButtonAction());
+        searchTextField.textProperty().addListener((observable, oldValue, newValue) -> {
+            if (Login.getInstance().hasUser()) searchDelay.playFromStart();
+        });
+
         // try to retrieve server IP and port from properties, otherwise use default
         String ip = "";
         String port = "";
@@ -142,26 +181,110 @@ public class FXMLMainWindowController implements Initializable {
         reloadMainTable("");
     }
 
-    private void reloadMainTable(String searchPattern) {
+    /**
+     * Displays items matching the search pattern (searched in cached items if possible).
+     * Previous unfinished reload / search is cancelled. Search results are displayed as they arrive.
+     * @param searchPattern searched text, empty string reloads all items from DB
+     */
+    private CompletableFuture<? extends List<Item>> reloadMainTable(String searchPattern) {
+        if (pendingReload != null) pendingReload.cancel(true);
+        lastRefreshLabel.setText("Načítavam...");
+
+        // the table keeps previous content until the first part of the result arrives
+        boolean[] anyChunkDisplayed = {false};
+        CompletableFuture<? extends List<Item>> reload;
+        if (searchPattern.equals("")) {
+            reload = AsyncDAO.getInstance().reloadItemList();
+        } else {
+            searchButton.setText("Hľadám...");
+            reload = AsyncDAO.getInstance().searchItems(searchPattern, chunk -> {
+                if (anyChunkDisplayed[0]) {
+                    mainTable.getItems().addAll(chunk);
+                } else {
+                    displayItems(chunk);
+                    anyChunkDisplayed[0] = true;
+                }
+            });
+        }
+        pendingReload = reload;
+        reload.whenComplete((items, e) -> Platform.runLater(() -> {
+            if (pendingReload == reload) searchButton.setText("Vyhľadať");
+        }));
+        AsyncDAO.deliver(reload, items -> {
+            if (!anyChunkDisplayed[0]) displayItems(items);
+            refreshCategoryNames();
+            Calendar cal = Calendar.getInstance();
+            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
+            lastRefreshLabel.setText("Aktualizované " + sdf.format(cal.getTime()));
+            refreshExpiryWarning();
+            refreshLowStockWarning();
+        }, e -> {
+            lastRefreshLabel.setText("");
+            DialogFactory.getInstance().showException(e);
+        });
+        return reload;
+    }
+
+    /**
+     * Displays the items, only changed rows of the table are updated.
+     * Selection (and item details) is kept if the selected item is still displayed.
+     */
+    private void displayItems(List<Item> items) {
+        Item selectedBefore = mainTable.getSelectionModel().getSelectedItem();
+        if (!ItemTablePatcher.patch(mainTable.getItems(), items) || selectedBefore == null) return;
+
+        Item selectedNow = mainTable.getSelectionModel().getSelectedItem();
+        if (selectedNow != null && selectedNow.getId() == selectedBefore.getId()) return;
+        for (int i = 0; i < mainTable.getItems().size(); i++) {
+            if (mainTable.getItems().get(i).getId() == selectedBefore.getId()) {
+                mainTable.getSelectionModel().clearAndSelect(i);
+                return;
+            }
+        }
+        mainTable.getSelectionModel().clearSelection();
         clearItemDetails();
-        try {
-            if (searchPattern.equals("")) {
-                ItemDAO.getInstance().reloadItemList();
-            } else {
-                ItemDAO.getInstance().reloadItemList(searchPattern);
+    }
+
+    /**
+     * Writes the item changed by this application through to the main table (no reload from DB).
+     * @param item state of the item after the change, null if nothing has been changed
+     */
+    private void itemChanged(Item item) {
+        if (item == null) return;
+        refreshLowStockWarning();
+        if (searchTextField.getText().equals("")) {
+            // whole (cached) list is displayed - new / renamed item is placed by the order of the list
+            displayItems(ItemDAO.getInstance().getItemList());
+            return;
+        }
+        List<Item> rows = new ArrayList<>(mainTable.getItems());
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).getId() == item.getId()) {
+                rows.set(i, item);
+                displayItems(rows);
+                return;
             }
-            Platform.runLater(() -> {
-                mainTable.getItems().clear();
-                mainTable.getItems().addAll(ItemDAO.getInstance().getItemList());
-                Calendar cal = Calendar.getInstance();
-                SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
-                lastRefreshLabel.setText("Aktualizované " + sdf.format(cal.getTime()));
-            });
-        } catch (UserWarningException e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.WARNING, e.getMessage());
-        } catch (Exception e) {
-            DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
-            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Removes the item deleted by this application from the main table (no reload from DB).
+     */
+    private void itemDeleted(int itemId) {
+        refreshLowStockWarning();
+        List<Item> rows = new ArrayList<>(mainTable.getItems());
+        rows.removeIf(row -> row.getId() == itemId);
+        displayItems(rows);
+    }
+
+    /**
+     * Unchanged rows are not redrawn, so renamed categories require explicit refresh of the table.
+     */
+    private void refreshCategoryNames() {
+        long categoryVersion = CategoryDAO.getInstance().getVersion();
+        if (categoryVersion != displayedCategoryVersion) {
+            displayedCategoryVersion = categoryVersion;
+            mainTable.refresh();
         }
     }
 
@@ -177,15 +300,25 @@ public class FXMLMainWindowController implements Initializable {
         if (selectedItem != null) {
             autoRefreshPause();
 
-            // load custom attributes
-            try {
-                HashSet<CustomAttribute> newCustomAttributes = ItemDAO.getInstance().getItemCustomAttributes(selectedItem.getId());
-                selectedItemPropertiesTable.getItems().addAll(newCustomAttributes);
-                selectedItemCustomAttributes = newCustomAttributes;
-            } catch (UserWarningException e) {
-                DialogFactory.getInstance().showAlert(Alert.AlertType.WARNING, e.getMessage());
-            } catch (Exception e) {
-                DialogFactory.getInstance().showAlert(Alert.AlertType.ERROR, "Neočakávaná chyba.");
+            // load custom attributes (displayed at once if they are cached)
+            if (pendingAttributesLoad != null) pendingAttributesLoad.cancel(true);
+            HashSet<CustomAttribute> cachedAttributes =
+                    ItemDAO.getInstance().getCachedItemCustomAttributes(selectedItem.getId());
+            if (cachedAttributes != null) {
+                selectedItemPropertiesTable.setPlaceholder(new Label("Bez ďalších atribútov."));
+                selectedItemPropertiesTable.getItems().setAll(cachedAttributes);
+                selectedItemCustomAttributes = cachedAttributes;
+            } else {
+                selectedItemPropertiesTable.setPlaceholder(new ProgressIndicator());
+                pendingAttributesLoad = AsyncDAO.getInstance().getItemCustomAttributes(selectedItem.getId());
+                AsyncDAO.deliver(pendingAttributesLoad, newCustomAttributes -> {
+                    selectedItemPropertiesTable.setPlaceholder(new Label("Bez ďalších atribútov."));
+                    selectedItemPropertiesTable.getItems().setAll(newCustomAttributes);
+                    selectedItemCustomAttributes = newCustomAttributes;
+                }, e -> {
+                    selectedItemPropertiesTable.setPlaceholder(new Label("Bez ďalších atribútov."));
+                    DialogFactory.getInstance().showException(e);
+                });
             }
 
             //enable buttons for item manipulation
@@ -216,7 +349,8 @@ public class FXMLMainWindowController implements Initializable {
             controller.initData(selectedItem);
             stage.setTitle("Vklad položky " + selectedItem.getName());
             stage.showAndWait();
-            autoRefreshResume();
+            itemChanged(controller.getUpdatedItem());
+            autoRefreshContinue();
         }
     }
 
@@ -237,7 +371,8 @@ public class FXMLMainWindowController implements Initializable {
             controller.initData(selectedItem);
             stage.setTitle("Výber položky " + selectedItem.getName());
             stage.showAndWait();
-            autoRefreshResume();
+            itemChanged(controller.getUpdatedItem());
+            autoRefreshContinue();
         }
     }
 
@@ -258,7 +393,7 @@ public class FXMLMainWindowController implements Initializable {
             controller.initData(selectedItem);
             stage.setTitle("Pohyby položky " + selectedItem.getName());
             stage.showAndWait();
-            autoRefreshResume();
+            autoRefreshContinue();
         }
     }
 
@@ -280,7 +415,14 @@ public class FXMLMainWindowController implements Initializable {
             controller.initData(selectedItem, selectedItemCustomAttributes);
             stage.setTitle("Úprava položky " + selectedItem.getName());
             stage.showAndWait();
-            autoRefreshResume();
+            if (controller.isItemDeleted()) {
+                itemDeleted(selectedItem.getId());
+            } else if (controller.getUpdatedItem() != null) {
+                itemChanged(controller.getUpdatedItem());
+                // custom attributes may have been changed
+                if (mainTable.getSelectionModel().getSelectedItem() != null) itemSelected();
+            }
+            autoRefreshContinue();
         }
     }
 
@@ -301,7 +443,8 @@ public class FXMLMainWindowController implements Initializable {
         controller.initData(newItem, selectedItemCustomAttributes, true);
         stage.setTitle("Nová položka");
         stage.showAndWait();
-        autoRefreshResume();
+        itemChanged(controller.getUpdatedItem());
+        autoRefreshContinue();
     }
 
     /**
@@ -320,7 +463,7 @@ public class FXMLMainWindowController implements Initializable {
         controller.initData();
         stage.setTitle("Používateľské účty");
         stage.showAndWait();
-        autoRefreshResume();
+        autoRefreshContinue();
     }
 
     /**
@@ -340,6 +483,46 @@ public class FXMLMainWindowController implements Initializable {
         autoRefreshResume();
     }
 
+    /**
+     * MENU ITEM "Sprava databazy" -> "Prepocitat zasoby" Recalculates stored varieties from the history of moves.
+     */
+    @FXML
+    private void rebuildStockLotsAction() {
+        AsyncDAO.deliver(AsyncDAO.getInstance().rebuildStockLots(),
+                result -> DialogFactory.getInstance().showAlert(Alert.AlertType.INFORMATION,
+                        "Zásoby boli prepočítané."),
+                DialogFactory.getInstance()::showException);
+    }
+
+    /**
+     * MENU ITEM "Sprava databazy" -> "Prepocitat spotrebu" Recalculates consumption totals from the history of moves.
+     */
+    @FXML
+    private void rebuildConsumptionRollupsAction() {
+        AsyncDAO.deliver(AsyncDAO.getInstance().rebuildConsumptionRollups(),
+                result -> DialogFactory.getInstance().showAlert(Alert.AlertType.INFORMATION,
+                        "Spotreba bola prepočítaná."),
+                DialogFactory.getInstance()::showException);
+    }
+
+    /**
+     * MENU ITEM "Sprava databazy" -> "Statistiky" Shows run times of DB operations, conflicts of transactions
+     * and runs of background jobs since the start of the application.
+     */
+    @FXML
+    private void statisticsAction() {
+        String text = "Operácie s databázou:\n" + orNone(QueryStatistics.getInstance().summary())
+                + "\nTransakcie:\n" + orNone(TransactionRunner.getInstance().summary())
+                + "\nÚlohy na pozadí:\n" + orNone(BackgroundScheduler.getInstance().summary());
+        autoRefreshPause();
+        DialogFactory.getInstance().showText("Štatistiky", text);
+        autoRefreshContinue();
+    }
+
+    private static String orNone(String summary) {
+        return summary.isEmpty() ? "(žiadne záznamy)\n" : summary;
+    }
+
     /**
      * MENU ITEM "Kontrola" -> "Expiracia" Opens ExpiryCheckDialog.
      */
@@ -371,7 +554,7 @@ public class FXMLMainWindowController implements Initializable {
         stage.initModality(Modality.APPLICATION_MODAL);
         stage.setTitle("Položky v nedostatočnom množstve");
         stage.showAndWait();
-        autoRefreshResume();
+        autoRefreshContinue();
     }
 
     /**
@@ -387,7 +570,7 @@ public class FXMLMainWindowController implements Initializable {
         stage.initModality(Modality.APPLICATION_MODAL);
         stage.setTitle("Spotreba - prehľad");
         stage.showAndWait();
-        autoRefreshResume();
+        autoRefreshContinue();
     }
 
     /**
@@ -402,6 +585,12 @@ public class FXMLMainWindowController implements Initializable {
         databaseRefreshButton.setDisable(true);
         autoRefreshCheckBox.setDisable(true);
         autoRefreshStop();
+
+        ExpiryIndex.getInstance().stop();
+        if (rollupRepairJob != null) rollupRepairJob.cancel();
+        rollupRepairJob = null;
+        refreshExpiryWarning();
+        refreshLowStockWarning();
     }
 
     /**
@@ -415,12 +604,59 @@ public class FXMLMainWindowController implements Initializable {
         autoRefreshCheckBox.setDisable(false);
         autoRefreshCheckBox.setSelected(true);
         autoRefreshStart();
+
+        ExpiryIndex.getInstance().start();
+        if (rollupRepairJob == null) rollupRepairJob = BackgroundScheduler.getInstance().schedule(
+                "consumption-rollup-repair", ROLLUP_REPAIR_INTERVAL_MILLIS, ROLLUP_REPAIR_INTERVAL_MILLIS, false,
+                ComplexQueryHandler.getInstance()::repairRecentConsumptionRollups);
+    }
+
+    /**
+     * Displays number of items with expired stock and stock expiring within a week.
+     */
+    private void refreshExpiryWarning() {
+        if (!ExpiryIndex.getInstance().isLoaded()) {
+            expiryWarningLabel.setText("");
+            return;
+        }
+        int expired = ExpiryIndex.getInstance().getExpiring(ExpiryIndex.Horizon.EXPIRED).size();
+        int soon = ExpiryIndex.getInstance().getExpiring(ExpiryIndex.Horizon.WEEK).size() - expired;
+        expiryWarningLabel.setText(expired == 0 && soon == 0 ? "" :
+                "Expirované: " + expired + ", do 7 dní: " + soon);
+        expiryWarningLabel.setTextFill(Paint.valueOf(expired > 0 ? "red" : "orange"));
+    }
+
+    /**
+     * Displays number of low stock items (maintained with cached items, no DB request).
+     */
+    private void refreshLowStockWarning() {
+        int lowStock = ItemDAO.getInstance().getLowStockCount();
+        lowStockWarningLabel.setText(lowStock > 0 && Login.getInstance().hasUser() ?
+                "Nízky stav: " + lowStock : "");
+    }
+
+    /**
+     * LABEL low stock warning clicked - opens StockCheckDialog.
+     */
+    @FXML
+    private void lowStockWarningClicked() throws IOException {
+        if (!lowStockWarningLabel.getText().isEmpty()) StockCheckAction();
+    }
+
+    /**
+     * LABEL expiry warning clicked - opens ExpiryCheckDialog.
+     */
+    @FXML
+    private void expiryWarningClicked() throws IOException {
+        if (!expiryWarningLabel.getText().isEmpty()) expiryDateCheckAction();
     }
 
     /**
      * Clears displayed item details and disables buttons related to item manipulation.
      */
     private void clearItemDetails() {
+        if (pendingAttributesLoad != null) pendingAttributesLoad.cancel(true);
+        selectedItemPropertiesTable.setPlaceholder(new Label("Bez ďalších atribútov."));
         selectedItemPropertiesTable.getItems().clear();
         selectedItemCustomAttributes = null;
         itemSupplyButton.setDisable(true);
@@ -445,27 +681,22 @@ public class FXMLMainWindowController implements Initializable {
 
     // AUTOMATIC TABLE REFRESHING
 
-    // thread for main table refresh
-    private class TableRefreshThread extends Thread {
-        public boolean canRun = true;
-        private boolean stopRequest = false;
-
-        @Override
-        public void run() {
-            while (!stopRequest) {
-                if (canRun) reloadMainTable();
-                try {
-                    sleep(600000);
-                } catch (InterruptedException ignored) {
-
-                }
-            }
-        }
-
-        public void requestStop() {
-            stopRequest = true;
-            tableRefreshThread = null;
-        }
+    // change feed is polled this often
+    private static final long CHANGE_POLL_INTERVAL_MILLIS = 5000;
+    // blind refresh interval used if the server has no change feed
+    private static final long BLIND_REFRESH_INTERVAL_MILLIS = 600000;
+    // consumption totals written by older clients are repaired this often
+    private static final long ROLLUP_REPAIR_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    // reloads the table only after other clients have changed items / categories (called by background thread)
+    private void autoRefresh() throws Exception {
+        Set<String> changedTables = ChangeFeed.getInstance().poll();
+        boolean refreshNeeded = changedTables == null ?
+                System.currentTimeMillis() - lastAutoRefresh >= BLIND_REFRESH_INTERVAL_MILLIS :
+                !changedTables.isEmpty();
+        if (!refreshNeeded) return;
+        lastAutoRefresh = System.currentTimeMillis();
+        Platform.runLater(() -> reloadMainTable());
     }
 
     // checkbox for auto refresh toogled
@@ -480,10 +711,10 @@ public class FXMLMainWindowController implements Initializable {
 
     // called after user-action on refreshed data || user checks auto-refresh CheckBox
     private void autoRefreshStart() {
-        if (tableRefreshThread == null) {
-            tableRefreshThread = new TableRefreshThread();
-            tableRefreshThread.setDaemon(true);
-            tableRefreshThread.start();
+        if (tableRefreshJob == null) {
+            lastAutoRefresh = 0;
+            tableRefreshJob = BackgroundScheduler.getInstance().schedule("table-refresh", 0,
+                    CHANGE_POLL_INTERVAL_MILLIS, true, this::autoRefresh);
             autoRefreshCheckBox.setTextFill(Paint.valueOf("green"));
         } else {
             autoRefreshResume();
@@ -492,49 +723,89 @@ public class FXMLMainWindowController implements Initializable {
 
     // called when user performs actions - no need to reload
     private void autoRefreshPause() {
-        if (tableRefreshThread != null) {
-            tableRefreshThread.canRun = false;
+        if (tableRefreshJob != null) {
+            BackgroundScheduler.getInstance().pause();
             autoRefreshCheckBox.setTextFill(Paint.valueOf("red"));
         }
     }
 
     @FXML
     private void autoRefreshResume() {
-        if (tableRefreshThread != null) {
-            tableRefreshThread.canRun = true;
+        autoRefreshContinue();
+        reloadMainTable();
+    }
+
+    // called after user-action which did not change displayed data (or changed rows were updated already)
+    private void autoRefreshContinue() {
+        if (tableRefreshJob != null) {
+            BackgroundScheduler.getInstance().resume();
             autoRefreshCheckBox.setTextFill(Paint.valueOf("green"));
         }
-        reloadMainTable();
     }
 
     // no more auto-refresh expected e.g. auto-refresh CheckBox was unchecked
     private void autoRefreshStop() {
-        if (tableRefreshThread != null) {
-            tableRefreshThread.requestStop();
+        if (tableRefreshJob != null) {
+            tableRefreshJob.cancel();
+            tableRefreshJob = null;
+            BackgroundScheduler.getInstance().resume();
             autoRefreshCheckBox.setTextFill(Paint.valueOf("red"));
         }
     }
 
     // ITEM SEARCH
+
+    // called on button / ENTER press and after the user stops typing
     @FXML
     private void searchButtonAction() {
-        searchButton.setDisable(true);
+        searchDelay.stop();
         if (searchTextField.getText().equals("")) {
             autoRefreshResume();
         } else {
             autoRefreshPause();
-            searchButton.setText("Hľadám...");
             reloadMainTable(searchTextField.getText());
-            searchButton.setText("Vyhľadať");
         }
-        searchButton.setDisable(false);
     }
 
+    // ENTER (sent also by barcode scanners) selects item with the exact barcode, searches otherwise
     @FXML
     private void searchTextFieldKeyPressed(KeyEvent keyEvent) {
-        if (keyEvent.getCode() == KeyCode.ENTER) {
+        if (keyEvent.getCode() != KeyCode.ENTER) return;
+        searchDelay.stop();
+        String text = searchTextField.getText();
+        if (text.trim().isEmpty() || !Login.getInstance().hasUser()) {
             searchButtonAction();
+            return;
+        }
+        AsyncDAO.deliver(AsyncDAO.getInstance().findItemByBarcode(text), item -> {
+            if (item == null) {
+                searchButtonAction();
+            } else {
+                selectItem(item);
+            }
+        }, e -> DialogFactory.getInstance().showException(e));
+    }
+
+    /**
+     * Selects the item in the main table and scrolls to it. The item is displayed alone if not listed.
+     */
+    private void selectItem(Item item) {
+        if (pendingReload != null && pendingReload.cancel(true)) lastRefreshLabel.setText("");
+        int index = -1;
+        for (int i = 0; i < mainTable.getItems().size(); i++) {
+            if (mainTable.getItems().get(i).getId() == item.getId()) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            mainTable.getItems().setAll(item);
+            index = 0;
         }
+        mainTable.getSelectionModel().clearAndSelect(index);
+        mainTable.scrollTo(index);
+        mainTable.requestFocus();
+        itemSelected();
     }
 
 }
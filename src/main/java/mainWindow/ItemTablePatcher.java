@@ -0,0 +1,103 @@
+package mainWindow;
+
+import domain.Item;
+import javafx.collections.ObservableList;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Updates rows of the item table in place to match a new item list (rows are matched by item ID).
+ * Only removed, inserted, moved and changed rows are touched, unchanged rows keep their instances,
+ * so the table keeps its selection and scroll position and does not re-layout for nothing.
+ */
+
+class ItemTablePatcher {
+    // with more changes than this part of the rows the content is replaced at once
+    private static final double MAX_CHANGED_RATIO = 0.5;
+
+    private ItemTablePatcher() {}
+
+    /**
+     * @param rows items displayed in the table
+     * @param newItems items to be displayed (in display order)
+     * @return true if any row has been changed
+     */
+    static boolean patch(ObservableList<Item> rows, List<Item> newItems) {
+        if (isSame(rows, newItems)) return false;
+        if (rows.isEmpty() || newItems.isEmpty()) {
+            rows.setAll(newItems);
+            return true;
+        }
+
+        HashMap<Integer, Integer> newPositions = new HashMap<>();
+        for (int i = 0; i < newItems.size(); i++) newPositions.put(newItems.get(i).getId(), i);
+
+        // remove rows of items no longer present (contiguous ranges at once)
+        int removedCount = 0;
+        int rangeEnd = rows.size();
+        for (int i = rows.size() - 1; i >= -1; i--) {
+            boolean keep = i >= 0 && newPositions.containsKey(rows.get(i).getId());
+            if (keep || i == -1) {
+                if (rangeEnd > i + 1) {
+                    removedCount += rangeEnd - i - 1;
+                    rows.remove(i + 1, rangeEnd);
+                }
+                rangeEnd = i;
+            }
+        }
+        if (removedCount + Math.abs(newItems.size() - rows.size()) > MAX_CHANGED_RATIO * newItems.size()) {
+            rows.setAll(newItems);
+            return true;
+        }
+
+        // walk both lists in display order, insert new / move misplaced / replace changed rows
+        HashSet<Integer> rowIds = new HashSet<>();
+        for (Item row : rows) rowIds.add(row.getId());
+        for (int i = 0; i < newItems.size(); i++) {
+            Item wanted = newItems.get(i);
+            while (true) {
+                if (i >= rows.size()) {
+                    rows.add(wanted);
+                    break;
+                }
+                Item current = rows.get(i);
+                if (current.getId() == wanted.getId()) {
+                    if (current != wanted) rows.set(i, wanted);
+                    break;
+                }
+                if (!rowIds.contains(wanted.getId())) {
+                    rows.add(i, wanted);
+                    rowIds.add(wanted.getId());
+                    break;
+                }
+                // both rows are present but misplaced - move the one which is farther from its place
+                int wantedRowPosition = indexOf(rows, wanted.getId(), i + 1);
+                int currentNewPosition = newPositions.get(current.getId());
+                if (wantedRowPosition - i <= currentNewPosition - i) {
+                    rows.remove(wantedRowPosition);
+                    rows.add(i, wanted);
+                    break;
+                }
+                // current row is inserted again at its own place later
+                rows.remove(i);
+                rowIds.remove(current.getId());
+            }
+        }
+        if (rows.size() > newItems.size()) rows.remove(newItems.size(), rows.size());
+        return true;
+    }
+
+    private static boolean isSame(List<Item> rows, List<Item> newItems) {
+        if (rows.size() != newItems.size()) return false;
+        for (int i = 0; i < rows.size(); i++) if (rows.get(i) != newItems.get(i)) return false;
+        return true;
+    }
+
+    private static int indexOf(List<Item> rows, int itemId, int from) {
+        for (int i = from; i < rows.size(); i++) if (rows.get(i).getId() == itemId) return i;
+        return -1;
+    }
+
+}